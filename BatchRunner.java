@@ -0,0 +1,454 @@
+package ftc;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the beacon analysis over every image in a directory (or matching a glob) in one JVM, several
+ * images at a time, and writes a CSV summary with the button positions and timings of each image.
+ *
+ * usage: BatchRunner &lt;directory or glob&gt; [-summary file.csv] [-threads n] [-out directory] [-pyramid]
+ * [-metrics file.json] [-compare pixels] [-cache MB] [-repeat n]
+ *
+ * -summary defaults to printing the CSV, -threads defaults to the number of processors, -out
+ * saves the analysed image of each input as a png in the given directory and -pyramid finds the
+ * beacon coarse to fine instead of analysing the whole of each image at full size. -metrics records the
+ * time and allocation of every stage (see StageMetrics), readable over JMX while the batch runs and
+ * written as JSON to the given file at the end. -compare analyses every image both at full size and
+ * coarse to fine, records how far apart the buttons the two find are, and fails if any are further
+ * apart than the given number of pixels. It is the regression check of the pyramid search, run it
+ * over res/ after changing it. -repeat runs over the images that many times, the summary is of the last
+ * run, and -cache keeps up to that many megabytes of decoded images in memory (see FrameCache) so the
+ * runs after the first do not decode them again. Images can be
+ * anything ImageIO reads or raw frames (see RawFrame), which are mapped instead of decoded. An unknown
+ * option, one without its value or a bad number (-threads and -repeat must be at least 1) prints the
+ * usage and exits with status 1.
+ */
+public class BatchRunner {
+    private static final String USAGE = "usage: BatchRunner <directory or glob> [-summary file.csv] [-threads n] [-out directory] [-pyramid] [-metrics file.json] [-compare pixels] [-cache MB] [-repeat n]";
+    private static final String CSV_HEADER = "file,width,height,blueButtonX,blueButtonY,redButtonX,redButtonY,"
+            + "redPixels,bluePixels,decodeMs,analyseMs,encodeMs,pyramidOffset,error";
+    // stage recorded in StageMetrics besides those of the analysis and StageMetrics.ENCODE
+    static final String DECODE = "decode";
+
+    private final int threads;
+    private final File outputDir;
+    private boolean coarseToFine = false;
+    private boolean comparePyramid = false;
+    private FrameCache frameCache;
+
+    /**
+     * @param threads number of images to process at once
+     * @param outputDir directory to save the analysed images to, null to not save them
+     */
+    public BatchRunner(int threads, File outputDir) {
+        this.threads = threads;
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * @param coarseToFine true to find the beacon on a small copy of each image first, see
+     *                     MaskImage.analyseCoarseToFine
+     */
+    public void setCoarseToFine(boolean coarseToFine) {
+        this.coarseToFine = coarseToFine;
+    }
+
+    /**
+     * @param comparePyramid true to analyse every image both at full size and coarse to fine and
+     *                       record how far apart the buttons are, see Result.pyramidOffset
+     */
+    public void setComparePyramid(boolean comparePyramid) {
+        this.comparePyramid = comparePyramid;
+    }
+
+    /**
+     * @param frameCache cache to read images through, so running again over the same images does not
+     *                   decode them again. null to read every image from its file
+     */
+    public void setFrameCache(FrameCache frameCache) {
+        this.frameCache = frameCache;
+    }
+
+    /**
+     * summary of the analysis of a single image
+     */
+    public static class Result {
+        final File file;
+        int width;
+        int height;
+        Point blueButton;
+        Point redButton;
+        ColorStats stats;
+        long decodeNanos;
+        long analyseNanos;
+        // time spent handing the analysed image to the writer threads, which includes writing it
+        // only when all of them were busy. The writing itself is recorded as StageMetrics.ENCODE
+        long encodeNanos;
+        // furthest a button found coarse to fine is from the one found at full size, infinite if only
+        // one of them found it. -1 if the two were not compared
+        double pyramidOffset = -1;
+        String error;
+        // the analysed image being saved, null if it is not saved
+        Future<File> write;
+
+        Result(File file) {
+            this.file = file;
+        }
+
+        /**
+         * @return this result as a line of the CSV summary
+         */
+        String toCSV() {
+            StringBuilder line = new StringBuilder();
+            line.append(quote(file.getPath())).append(',').append(width).append(',').append(height).append(',');
+            appendPoint(line, blueButton);
+            appendPoint(line, redButton);
+            if (stats != null) {
+                line.append(stats.getRedPixels()).append(',').append(stats.getBluePixels()).append(',');
+            } else {
+                line.append(",,");
+            }
+            line.append(toMillis(decodeNanos)).append(',').append(toMillis(analyseNanos)).append(',')
+                    .append(toMillis(encodeNanos)).append(',');
+            if (Double.isInfinite(pyramidOffset)) {
+                line.append("missing");
+            } else if (pyramidOffset >= 0) {
+                line.append(String.format(Locale.ROOT, "%.2f", pyramidOffset));
+            }
+            line.append(',');
+            if (error != null) {
+                line.append(quote(error));
+            }
+            return line.toString();
+        }
+
+        private static void appendPoint(StringBuilder line, Point point) {
+            if (point != null) {
+                line.append(point.x).append(',').append(point.y).append(',');
+            } else {
+                line.append(",,");
+            }
+        }
+
+        private static String toMillis(long nanos) {
+            return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+        }
+
+        private static String quote(String value) {
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+
+    /**
+     * analyses every file, several at a time, waiting for all of them to finish
+     * @param files images to analyse
+     * @return a result for each file, in the same order as files
+     */
+    public List<Result> run(List<File> files) throws InterruptedException {
+        // the queue is bounded so decoded images can not pile up faster than they are analysed
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        final ImageOutput output = (outputDir != null) ? new ImageOutput(threads) : null;
+        List<Future<Result>> futures = new ArrayList<>();
+        try {
+            for (final File file : files) {
+                futures.add(executor.submit(() -> analyse(file, output)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            for (Result result : results) {
+                finishWrite(result);
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    // already recorded in the result of the image that failed to save
+                }
+            }
+        }
+    }
+
+    /*
+     * waits for the analysed image of result to be saved and records the failure if it could not be
+     */
+    private static void finishWrite(Result result) throws InterruptedException {
+        if (result.write == null) {
+            return;
+        }
+        try {
+            result.write.get();
+        } catch (ExecutionException e) {
+            if (result.error == null) {
+                result.error = e.getCause().toString();
+            }
+        }
+    }
+
+    /**
+     * decodes, analyses and optionally saves a single image. Failures are recorded in the result
+     * @param file image to analyse
+     * @param output where to save the analysed image, in the output directory, null to not save it.
+     *               The image is saved in the background, see Result.write
+     * @return summary of the analysis
+     */
+    public Result analyse(File file, ImageOutput output) {
+        Result result = new Result(file);
+        try {
+            long time = StageMetrics.time();
+            long bytes = StageMetrics.allocatedBytes();
+            long start = System.nanoTime();
+            BufferedImage img = (frameCache != null) ? frameCache.read(file) : RawFrame.readImage(file);
+            result.decodeNanos = System.nanoTime() - start;
+            StageMetrics.record(DECODE, time, bytes);
+            if (img == null) {
+                result.error = "not a readable image";
+                return result;
+            }
+            result.width = img.getWidth();
+            result.height = img.getHeight();
+
+            start = System.nanoTime();
+            MaskImage maskImage = new MaskImage(img);
+            try {
+                if (coarseToFine) {
+                    maskImage.analyseCoarseToFine();
+                } else {
+                    maskImage.setMask(main.BLUR_MASK);
+                }
+            } finally {
+                result.analyseNanos = System.nanoTime() - start;
+                result.stats = maskImage.getStats();
+                result.blueButton = maskImage.getButton(MaskImage.BLUE);
+                result.redButton = maskImage.getButton(MaskImage.RED);
+            }
+            if (comparePyramid) {
+                result.pyramidOffset = comparePyramid(img, result);
+            }
+
+            if (output != null) {
+                start = System.nanoTime();
+                result.write = output.write(maskImage, maskImage.getOverlay(),
+                        new File(outputDir, file.getName() + "_BLUR." + output.getFormat()));
+                result.encodeNanos = System.nanoTime() - start;
+            }
+        } catch (IOException | RuntimeException e) {
+            result.error = e.toString();
+        }
+        return result;
+    }
+
+    /*
+     * analyses img the other way than result was, at full size if it was coarse to fine and the other
+     * way round, and returns the furthest a button moved
+     */
+    private double comparePyramid(BufferedImage img, Result result) {
+        MaskImage other = new MaskImage(img);
+        try {
+            if (coarseToFine) {
+                other.setMask(main.BLUR_MASK);
+            } else {
+                other.analyseCoarseToFine();
+            }
+        } catch (RuntimeException e) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.max(distance(result.blueButton, other.getButton(MaskImage.BLUE)),
+                distance(result.redButton, other.getButton(MaskImage.RED)));
+    }
+
+    private static double distance(Point a, Point b) {
+        if (a == null || b == null) {
+            return (a == b) ? 0 : Double.POSITIVE_INFINITY;
+        }
+        return a.distance(b);
+    }
+
+    /**
+     * reports how far apart the buttons found at full size and coarse to fine were
+     * @param results results of a run with setComparePyramid
+     * @param tolerance furthest apart in pixels the buttons may be
+     * @return true if every image was within tolerance
+     */
+    public static boolean reportPyramidOffsets(List<Result> results, double tolerance) {
+        int within = 0;
+        for (Result result : results) {
+            if (result.pyramidOffset >= 0 && result.pyramidOffset <= tolerance) {
+                within++;
+            } else if (result.pyramidOffset < 0) {
+                System.out.println("not compared: " + result.file + " " + result.error);
+            } else {
+                System.out.println("too far apart: " + result.file + " " + (Double.isInfinite(result.pyramidOffset)
+                        ? "button found by one mode only" : String.format(Locale.ROOT, "%.2f pixels", result.pyramidOffset)));
+            }
+        }
+        System.out.println("coarse to fine was within " + tolerance + " pixels of full size on " + within + " of "
+                + results.size() + " images");
+        return within == results.size();
+    }
+
+    /**
+     * writes the CSV summary of the results
+     * @param results results to write
+     * @param out where to write them
+     */
+    public static void writeSummary(List<Result> results, PrintWriter out) {
+        out.println(CSV_HEADER);
+        for (Result result : results) {
+            out.println(result.toCSV());
+        }
+        out.flush();
+    }
+
+    /**
+     * lists the files to analyse
+     * @param pattern a directory, in which case every file in it is used, or a glob such as res/*.jpg
+     * @return matching files sorted by name
+     */
+    public static List<File> listFiles(String pattern) throws IOException {
+        Path path = Paths.get(pattern);
+        Path dir;
+        String glob;
+        if (Files.isDirectory(path)) {
+            dir = path;
+            glob = "*";
+        } else {
+            dir = path.getParent() != null ? path.getParent() : Paths.get(".");
+            glob = path.getFileName().toString();
+        }
+        List<File> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file.toFile());
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+        File summary = null;
+        File outputDir = null;
+        File metrics = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean coarseToFine = false;
+        double tolerance = -1;
+        long cacheMegabytes = 0;
+        int repeat = 1;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("-pyramid")) {
+                    coarseToFine = true;
+                } else if (args[i].equals("-summary")) {
+                    summary = new File(main.optionValue(args, ++i));
+                } else if (args[i].equals("-threads")) {
+                    threads = Integer.parseInt(main.optionValue(args, ++i));
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("-threads must be at least 1: " + threads);
+                    }
+                } else if (args[i].equals("-out")) {
+                    outputDir = new File(main.optionValue(args, ++i));
+                } else if (args[i].equals("-metrics")) {
+                    metrics = new File(main.optionValue(args, ++i));
+                } else if (args[i].equals("-compare")) {
+                    tolerance = Double.parseDouble(main.optionValue(args, ++i));
+                } else if (args[i].equals("-cache")) {
+                    cacheMegabytes = Long.parseLong(main.optionValue(args, ++i));
+                } else if (args[i].equals("-repeat")) {
+                    repeat = Integer.parseInt(main.optionValue(args, ++i));
+                    if (repeat < 1) {
+                        throw new IllegalArgumentException("-repeat must be at least 1: " + repeat);
+                    }
+                } else {
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // also a number that does not parse
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+        if (outputDir != null) {
+            outputDir.mkdirs();
+        }
+
+        if (metrics != null) {
+            StageMetrics.registerMBean();
+            StageMetrics.enable(true);
+        }
+        try {
+            long start = System.nanoTime();
+            BatchRunner runner = new BatchRunner(threads, outputDir);
+            runner.setCoarseToFine(coarseToFine);
+            runner.setComparePyramid(tolerance >= 0);
+            FrameCache cache = null;
+            if (cacheMegabytes > 0) {
+                cache = new FrameCache(cacheMegabytes << 20);
+                runner.setFrameCache(cache);
+            }
+            List<File> files = listFiles(args[0]);
+            List<Result> results = runner.run(files);
+            for (int i = 1; i < repeat; i++) {
+                results = runner.run(files);
+            }
+            if (summary != null) {
+                try (PrintWriter out = new PrintWriter(summary, "UTF-8")) {
+                    writeSummary(results, out);
+                }
+            } else {
+                writeSummary(results, new PrintWriter(System.out));
+            }
+            System.out.println("analysed " + results.size() + " images" + (repeat > 1 ? " " + repeat + " times" : "")
+                    + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+            if (cache != null) {
+                System.out.println("frame cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses, "
+                        + cache.getBytes() / (1 << 20) + "MB held");
+            }
+            if (metrics != null) {
+                try (PrintWriter out = new PrintWriter(metrics, "UTF-8")) {
+                    out.println(StageMetrics.toJSON());
+                }
+            }
+            if (tolerance >= 0 && !reportPyramidOffsets(results, tolerance)) {
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            System.out.println("failed to read " + args[0] + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
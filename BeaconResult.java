@@ -0,0 +1,136 @@
+package ftc;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+/**
+ * What an analysis of an image found: where the two buttons are, the area of each half of the beacon
+ * the button was searched for in, how many red and blue pixels there were and how long each stage took.
+ * All positions are in coordinates of the whole image, and are null for a button or beacon that was
+ * not found. Results never change once made.
+ */
+public class BeaconResult {
+    private final Point redButton;
+    private final Point blueButton;
+    private final Rectangle redBeacon;
+    private final Rectangle blueBeacon;
+    private final ColorStats stats;
+    private final long classifyNanos;
+    private final long countNanos;
+    private final long searchNanos;
+
+    /**
+     * @param redButton center of the button on the red side, null if not found
+     * @param blueButton center of the button on the blue side, null if not found
+     * @param redBeacon area between the edges found for the red side, null if not found
+     * @param blueBeacon area between the edges found for the blue side, null if not found
+     * @param stats red and blue pixel counts
+     * @param classifyNanos time taken to classify the pixels
+     * @param countNanos time taken to build the pixel counts
+     * @param searchNanos time taken to find the edges and buttons
+     */
+    BeaconResult(Point redButton, Point blueButton, Rectangle redBeacon, Rectangle blueBeacon, ColorStats stats,
+                 long classifyNanos, long countNanos, long searchNanos) {
+        this.redButton = copy(redButton);
+        this.blueButton = copy(blueButton);
+        this.redBeacon = copy(redBeacon);
+        this.blueBeacon = copy(blueBeacon);
+        this.stats = stats;
+        this.classifyNanos = classifyNanos;
+        this.countNanos = countNanos;
+        this.searchNanos = searchNanos;
+    }
+
+    private static Point copy(Point point) {
+        return (point == null) ? null : new Point(point);
+    }
+
+    private static Rectangle copy(Rectangle rectangle) {
+        return (rectangle == null) ? null : new Rectangle(rectangle);
+    }
+
+    /**
+     * @return true if both buttons were found
+     */
+    public boolean isFound() {
+        return redButton != null && blueButton != null;
+    }
+
+    /**
+     * @param color MaskImage.RED or MaskImage.BLUE
+     * @return center of the button on that side of the beacon, null if it was not found
+     */
+    public Point getButton(byte color) {
+        return copy((color == MaskImage.RED) ? redButton : blueButton);
+    }
+
+    /**
+     * @param color MaskImage.RED or MaskImage.BLUE
+     * @return area between the left and right edges found for that side of the beacon, null if it was
+     *         not found
+     */
+    public Rectangle getBeacon(byte color) {
+        return copy((color == MaskImage.RED) ? redBeacon : blueBeacon);
+    }
+
+    public int getRedPixels() {
+        return stats.getRedPixels();
+    }
+
+    public int getBluePixels() {
+        return stats.getBluePixels();
+    }
+
+    /**
+     * @return red and blue pixel counts
+     */
+    public ColorStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return MaskImage.RED or MaskImage.BLUE, whichever there are more pixels of, NONE if neither
+     */
+    public byte getDominantColor() {
+        return stats.getDominantColor();
+    }
+
+    /**
+     * @return time taken to classify every pixel as red, blue or neither
+     */
+    public long getClassifyNanos() {
+        return classifyNanos;
+    }
+
+    /**
+     * @return time taken to build the tables the pixel counts of any rectangle are read from
+     */
+    public long getCountNanos() {
+        return countNanos;
+    }
+
+    /**
+     * @return time taken to find the edges of the beacon and the buttons
+     */
+    public long getSearchNanos() {
+        return searchNanos;
+    }
+
+    /**
+     * @return time taken by the whole analysis
+     */
+    public long getTotalNanos() {
+        return classifyNanos + countNanos + searchNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BeaconResult[red button " + format(redButton) + ", blue button " + format(blueButton) + ", "
+                + stats.getRedPixels() + " red pixels, " + stats.getBluePixels() + " blue pixels, "
+                + getTotalNanos() / 1000 + "us]";
+    }
+
+    private static String format(Point button) {
+        return (button == null) ? "not found" : "(" + button.x + ", " + button.y + ")";
+    }
+}
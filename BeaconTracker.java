@@ -0,0 +1,170 @@
+package ftc;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Follows the beacon across a sequence of frames of the same scene.
+ *
+ * Once the beacon has been found, the next frame is first only searched in a window around where it
+ * was, so the work per frame depends on the size of the beacon instead of the size of the frame. The
+ * whole frame is searched again when the window search is not confident: it failed, an edge of the
+ * beacon was not found inside the window, or far fewer beacon pixels were seen than last time.
+ */
+public class BeaconTracker {
+    // the window is grown by this fraction of the beacon size on every side
+    static final double MARGIN_FRACTION = 0.25;
+    // and by at least this many pixels
+    static final int MIN_MARGIN = 16;
+    // a window search that sees less than this fraction of the beacon pixels of the last frame is not trusted
+    static final double MIN_COVERAGE = 0.5;
+
+    private Point redButton;
+    private Point blueButton;
+    private Rectangle redBeacon;
+    private Rectangle blueBeacon;
+    private int beaconPixels;
+    private boolean tracked;
+
+    /**
+     * finds the beacon in the next frame of the sequence
+     * @param frame frame to search, the same size as the frames before it
+     * @return true if the beacon was found, false if it was not found even in the whole frame
+     */
+    public boolean track(BufferedImage frame) {
+        tracked = false;
+        if (redBeacon != null && blueBeacon != null) {
+            Rectangle window = getWindow(frame);
+            MaskImage windowImage = new MaskImage(frame.getSubimage(window.x, window.y, window.width, window.height));
+            windowImage.analyse(new Rectangle(0, 0, window.width, window.height));
+            if (isConfident(windowImage, window)) {
+                update(windowImage, window.x, window.y);
+                tracked = true;
+                return true;
+            }
+        }
+
+        MaskImage frameImage = new MaskImage(frame);
+        frameImage.analyse(new Rectangle(0, 0, frame.getWidth(), frame.getHeight()));
+        if (!frameImage.getResult().isFound()) {
+            reset();
+            return false;
+        }
+        update(frameImage, 0, 0);
+        return true;
+    }
+
+    /**
+     * forgets the last position, so the next frame is searched in full
+     */
+    public void reset() {
+        redButton = null;
+        blueButton = null;
+        redBeacon = null;
+        blueBeacon = null;
+        beaconPixels = 0;
+        tracked = false;
+    }
+
+    /**
+     * @return true if the last frame was found by searching only the window around the frame before it
+     */
+    public boolean wasTracked() {
+        return tracked;
+    }
+
+    /**
+     * @param color MaskImage.RED or MaskImage.BLUE
+     * @return center of the button on that side of the beacon in the last frame, null if not found
+     */
+    public Point getButton(byte color) {
+        Point button = (color == MaskImage.RED) ? redButton : blueButton;
+        return (button == null) ? null : new Point(button);
+    }
+
+    /**
+     * @param color MaskImage.RED or MaskImage.BLUE
+     * @return area of that side of the beacon in the last frame, null if not found
+     */
+    public Rectangle getBeacon(byte color) {
+        Rectangle beacon = (color == MaskImage.RED) ? redBeacon : blueBeacon;
+        return (beacon == null) ? null : new Rectangle(beacon);
+    }
+
+    /*
+     * both halves of the last beacon, grown by the margin and clipped to the frame
+     */
+    private Rectangle getWindow(BufferedImage frame) {
+        Rectangle beacon = redBeacon.union(blueBeacon);
+        int xMargin = Math.max(MIN_MARGIN, (int) (beacon.width * MARGIN_FRACTION));
+        int yMargin = Math.max(MIN_MARGIN, (int) (beacon.height * MARGIN_FRACTION));
+        beacon.grow(xMargin, yMargin);
+        return beacon.intersection(new Rectangle(0, 0, frame.getWidth(), frame.getHeight()));
+    }
+
+    /*
+     * true if both halves were found with both of their edges inside the window, and about as many
+     * beacon pixels were seen as last time
+     */
+    private boolean isConfident(MaskImage windowImage, Rectangle window) {
+        if (!windowImage.getResult().isFound()) {
+            return false;
+        }
+        for (byte color : new byte[] { MaskImage.RED, MaskImage.BLUE }) {
+            Rectangle beacon = windowImage.getBeacon(color);
+            if (beacon == null) {
+                return false;
+            }
+            // the edge searches stop at the sides of the window, so an edge there may lie outside it
+            if (beacon.x <= 0 || beacon.x + beacon.width >= window.width - 1) {
+                return false;
+            }
+        }
+        // counted the same way as beaconPixels, inside the beacon only, so pixels of the window around
+        // it can not make up for a beacon that has shrunk
+        return countBeaconPixels(windowImage) >= MIN_COVERAGE * beaconPixels;
+    }
+
+    /*
+     * remembers the result of an analysis of the part of the frame at (x,y)
+     */
+    private void update(MaskImage image, int x, int y) {
+        redButton = translate(image.getButton(MaskImage.RED), x, y);
+        blueButton = translate(image.getButton(MaskImage.BLUE), x, y);
+        redBeacon = translate(image.getBeacon(MaskImage.RED), x, y);
+        blueBeacon = translate(image.getBeacon(MaskImage.BLUE), x, y);
+        beaconPixels = countBeaconPixels(image);
+    }
+
+    /*
+     * red and blue pixels inside the two halves of the beacon, so the count does not depend on how
+     * much of the frame around the beacon was searched
+     */
+    private static int countBeaconPixels(MaskImage image) {
+        int total = 0;
+        for (byte color : new byte[] { MaskImage.RED, MaskImage.BLUE }) {
+            Rectangle beacon = image.getBeacon(color);
+            if (beacon != null && !beacon.isEmpty()) {
+                total += image.getColoredCount(beacon);
+            }
+        }
+        return total;
+    }
+
+    private static Point translate(Point point, int x, int y) {
+        if (point == null) {
+            return null;
+        }
+        point.translate(x, y);
+        return point;
+    }
+
+    private static Rectangle translate(Rectangle rectangle, int x, int y) {
+        if (rectangle == null) {
+            return null;
+        }
+        rectangle.translate(x, y);
+        return rectangle;
+    }
+}
@@ -0,0 +1,247 @@
+package ftc;
+
+/**
+ * Decides whether a color is part of the red beacon, the blue beacon or neither.
+ *
+ * The answer depends only on the red, green and blue values, so it is worked out once for every one of
+ * the 2^24 colors and packed 2 bits per color into a table. Classifying a pixel is then a single
+ * lookup. Changing a threshold rebuilds the table.
+ *
+ * Building the table costs about as much as classifying one 16 megapixel image, so it is only built
+ * once that many pixels have been classified. Until then the snapshot from snapshotFor has no table
+ * and callers use classify, which keeps a single small image from paying for the whole table.
+ */
+public class ColorClassifier {
+    private static ColorClassifier defaultClassifier;
+
+    private static final int TABLE_COLORS = 1 << 24;
+
+    // thresholds and table in use, replaced as a whole so a reader always sees a matching pair
+    private volatile Snapshot current = new Snapshot(440, 700, 200, 50, 60, null);
+    // pixels classified without the table so far
+    private long untabledPixels = 0;
+
+    /**
+     * the thresholds of a classifier and the table built from them at one moment. Never changes, so an
+     * image classified with one snapshot is classified the same way throughout even if the thresholds
+     * are changed meanwhile
+     */
+    public static final class Snapshot {
+        // the color has to add up to more than this to be part of the beacon
+        private final int minTotal;
+        // the color has to add up to no more than this, brighter is treated as white
+        private final int maxTotal;
+        // the beacon channel has to be higher than this
+        private final int minChannel;
+        // the beacon channel has to be this much higher than half of the other two channels
+        private final int channelMargin;
+        // colors with more green than blue need this much more red than green to count as red
+        private final int greenMargin;
+        // 16 colors per int, 2 bits each holding MaskImage.NONE, RED or BLUE. null if not built
+        private final int[] table;
+
+        Snapshot(int minTotal, int maxTotal, int minChannel, int channelMargin, int greenMargin, int[] table) {
+            this.minTotal = minTotal;
+            this.maxTotal = maxTotal;
+            this.minChannel = minChannel;
+            this.channelMargin = channelMargin;
+            this.greenMargin = greenMargin;
+            this.table = table;
+        }
+
+        /*
+         * the same thresholds with table
+         */
+        Snapshot withTable(int[] table) {
+            return new Snapshot(minTotal, maxTotal, minChannel, channelMargin, greenMargin, table);
+        }
+
+        /**
+         * @return true if getLabel can be used, false to use classify
+         */
+        public boolean hasTable() {
+            return table != null;
+        }
+
+        /**
+         * classifies a color with a single table lookup, the table must have been built
+         * @param rgb RGB value of the pixel, the alpha channel is ignored
+         * @return MaskImage.RED, MaskImage.BLUE or MaskImage.NONE
+         */
+        public byte getLabel(int rgb) {
+            int color = rgb & 0xFFFFFF;
+            return (byte) ((table[color >>> 4] >>> ((color & 15) << 1)) & 3);
+        }
+
+        /**
+         * classifies a color by checking the thresholds, the reference the table is built from
+         * @param rgb RGB value of the pixel, the alpha channel is ignored
+         * @return MaskImage.RED, MaskImage.BLUE or MaskImage.NONE
+         */
+        public byte classify(int rgb) {
+            int red = ImageHelper.red(rgb);
+            int green = ImageHelper.green(rgb);
+            int blue = ImageHelper.blue(rgb);
+            int total = red + green + blue;
+            byte label = MaskImage.NONE;
+            if (total > minTotal && red > minChannel && red > channelMargin + .5 * (total - red)) {
+                label = MaskImage.RED;
+            }
+            if (green > blue && red < (green + greenMargin)) {
+                label = MaskImage.NONE;
+            }
+            if (total > minTotal && blue > minChannel && blue > channelMargin + .5 * (total - blue)) {
+                label = MaskImage.BLUE;
+            }
+            if (total > maxTotal) {
+                label = MaskImage.NONE;
+            }
+            return label;
+        }
+
+        /**
+         * classifies a run of pixels at once, with the same result as calling classify on each of them.
+         * Runs on the vector API where it is available and without branches otherwise, see PixelKernels
+         * @param pixels RGB values of the pixels, the alpha channel is ignored
+         * @param from index of the first pixel to classify
+         * @param to index after the last pixel to classify
+         * @param labels array to write MaskImage.RED, MaskImage.BLUE or MaskImage.NONE to
+         * @param labelFrom index in labels of the label of the first pixel
+         */
+        public void classify(int[] pixels, int from, int to, byte[] labels, int labelFrom) {
+            PixelKernels.classify(pixels, from, to, labels, labelFrom, minTotal, maxTotal, minChannel, channelMargin,
+                    greenMargin);
+        }
+    }
+
+    /**
+     * @return classifier with the default thresholds, shared by every MaskImage
+     */
+    public static synchronized ColorClassifier getDefault() {
+        if (defaultClassifier == null) {
+            defaultClassifier = new ColorClassifier();
+        }
+        return defaultClassifier;
+    }
+
+    public ColorClassifier() {
+    }
+
+    /**
+     * @return the thresholds and table as they are now
+     */
+    public Snapshot getSnapshot() {
+        return current;
+    }
+
+    /**
+     * decides how a batch of pixels should be classified, building the table once enough pixels have
+     * been classified without it
+     * @param pixels number of pixels about to be classified
+     * @return snapshot to classify all of them with, with a table if it should be used
+     */
+    public synchronized Snapshot snapshotFor(int pixels) {
+        if (!current.hasTable()) {
+            untabledPixels += pixels;
+            if (untabledPixels < TABLE_COLORS) {
+                return current;
+            }
+            rebuild();
+        }
+        return current;
+    }
+
+    /**
+     * changes the thresholds and rebuilds the table if it has been built. Analyses that are already
+     * running keep classifying with the snapshot they started with
+     * @param minTotal the color has to add up to more than this
+     * @param maxTotal the color has to add up to no more than this
+     * @param minChannel the beacon channel has to be higher than this
+     * @param channelMargin the beacon channel has to be this much higher than half of the other two
+     * @param greenMargin colors with more green than blue need this much more red than green to count as red
+     */
+    public synchronized void setThresholds(int minTotal, int maxTotal, int minChannel, int channelMargin,
+                                           int greenMargin) {
+        boolean hadTable = current.hasTable();
+        current = new Snapshot(minTotal, maxTotal, minChannel, channelMargin, greenMargin, null);
+        if (hadTable) {
+            rebuild();
+        }
+    }
+
+    /**
+     * works out the label of every color with classify and replaces the table
+     */
+    public synchronized void rebuild() {
+        final Snapshot thresholds = current;
+        final int[] newTable = new int[1 << 20];
+        // each row is one red value, which fills its own 4096 ints of the table
+        RowBands.run(256, (band, startY, endY) -> {
+            int[] colors = new int[1 << 16];
+            byte[] rowLabels = new byte[1 << 16];
+            for (int red = startY; red < endY; red++) {
+                for (int i = 0; i < colors.length; i++) {
+                    colors[i] = (red << 16) | i;
+                }
+                thresholds.classify(colors, 0, colors.length, rowLabels, 0);
+                int row = red << 12;
+                for (int i = 0; i < rowLabels.length; i++) {
+                    newTable[row + (i >>> 4)] |= rowLabels[i] << ((i & 15) << 1);
+                }
+            }
+        });
+        current = thresholds.withTable(newTable);
+    }
+
+    /**
+     * classifies a color with a single table lookup, the table must have been built. Classifying many
+     * pixels should go through a single snapshot instead
+     * @param rgb RGB value of the pixel, the alpha channel is ignored
+     * @return MaskImage.RED, MaskImage.BLUE or MaskImage.NONE
+     */
+    public byte getLabel(int rgb) {
+        return current.getLabel(rgb);
+    }
+
+    /**
+     * classifies a color by checking the current thresholds, see Snapshot.classify
+     * @param rgb RGB value of the pixel, the alpha channel is ignored
+     * @return MaskImage.RED, MaskImage.BLUE or MaskImage.NONE
+     */
+    public byte classify(int rgb) {
+        return current.classify(rgb);
+    }
+
+    /**
+     * classifies a run of pixels with the current thresholds, see Snapshot.classify
+     * @param pixels RGB values of the pixels, the alpha channel is ignored
+     * @param from index of the first pixel to classify
+     * @param to index after the last pixel to classify
+     * @param labels array to write MaskImage.RED, MaskImage.BLUE or MaskImage.NONE to
+     * @param labelFrom index in labels of the label of the first pixel
+     */
+    public void classify(int[] pixels, int from, int to, byte[] labels, int labelFrom) {
+        current.classify(pixels, from, to, labels, labelFrom);
+    }
+
+    /**
+     * checks every color of the table against classify
+     * @return number of colors where the table and classify disagree, 0 if the table is correct
+     */
+    public int verify() {
+        Snapshot snapshot;
+        synchronized (this) {
+            if (!current.hasTable()) {
+                rebuild();
+            }
+            snapshot = current;
+        }
+        int mismatches = 0;
+        for (int color = 0; color < (1 << 24); color++) {
+            if (snapshot.getLabel(color) != snapshot.classify(color)) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+}
@@ -0,0 +1,63 @@
+package ftc;
+
+/**
+ * Red and blue pixel counts found by a single MaskImage analysis
+ */
+public class ColorStats {
+    // counts of an image with no red or blue pixels, or of one not analysed yet
+    public static final ColorStats EMPTY = new ColorStats(0, 0);
+
+    private final int redPixels;
+    private final int bluePixels;
+
+    public ColorStats(int redPixels, int bluePixels) {
+        this.redPixels = redPixels;
+        this.bluePixels = bluePixels;
+    }
+
+    /**
+     * merges counts that were accumulated separately for each band of an image
+     * @param bandRed red pixels found in each band
+     * @param bandBlue blue pixels found in each band
+     * @return totals over all bands
+     */
+    public static ColorStats merge(int[] bandRed, int[] bandBlue) {
+        int red = 0;
+        int blue = 0;
+        for (int band = 0; band < bandRed.length; band++) {
+            red += bandRed[band];
+            blue += bandBlue[band];
+        }
+        return new ColorStats(red, blue);
+    }
+
+    /**
+     * @param other counts from another part of the same image
+     * @return totals of both
+     */
+    public ColorStats add(ColorStats other) {
+        return new ColorStats(redPixels + other.redPixels, bluePixels + other.bluePixels);
+    }
+
+    public int getRedPixels() {
+        return redPixels;
+    }
+
+    public int getBluePixels() {
+        return bluePixels;
+    }
+
+    /**
+     * @return MaskImage.RED if there are more red pixels, MaskImage.BLUE if there are more blue pixels,
+     * else MaskImage.NONE
+     */
+    public byte getDominantColor() {
+        if (redPixels > bluePixels) {
+            return MaskImage.RED;
+        }
+        if (bluePixels > redPixels) {
+            return MaskImage.BLUE;
+        }
+        return MaskImage.NONE;
+    }
+}
@@ -0,0 +1,133 @@
+package ftc;
+
+import java.util.Arrays;
+
+/**
+ * Per column totals of the pixels that carry one classification label, used to find the column the
+ * beacon is most likely in.
+ *
+ * Each hit in a column scores 1 plus the length of the run of hits it belongs to, so long vertical
+ * runs score much higher than scattered pixels. Like the original column by column scan, a run that
+ * reaches the bottom of a column carries on into the top of the next one.
+ *
+ * The image is walked row by row with the state of every column kept in arrays, so the labels are
+ * read in memory order. The carried runs are then patched in with one pass over the columns.
+ */
+public class ColumnProjection {
+    // once a run is longer than this, its hits count as the end of the beacon
+    static final int STREAK_LENGTH = 20;
+
+    private final int width;
+    private final int height;
+    private final int[] scores;
+    private final int[] hits;
+    private final int[] firstHits;
+    private final int[] lastStreakHits;
+
+    /**
+     * @param labels row-major classification labels of an image
+     * @param width width of the image
+     * @param height height of the image
+     * @param label label to project, see MaskImage.RED and MaskImage.BLUE
+     */
+    public ColumnProjection(byte[] labels, int width, int height, byte label) {
+        this.width = width;
+        this.height = height;
+        this.scores = new int[width];
+        this.hits = new int[width];
+        this.firstHits = new int[width];
+        this.lastStreakHits = new int[width];
+
+        // state of each column as if it started without a run carried in from the column before
+        int[] streaks = new int[width];
+        boolean[] lastHit = new boolean[width];
+        boolean[] firstPicked = new boolean[width];
+        int[] topRuns = new int[width];
+        boolean[] inTopRun = new boolean[width];
+        Arrays.fill(inTopRun, true);
+
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                if (labels[row + x] == label) {
+                    if (streaks[x] > STREAK_LENGTH) {
+                        lastStreakHits[x] = y;
+                    }
+                    if (!firstPicked[x]) {
+                        firstHits[x] = y;
+                        firstPicked[x] = true;
+                    }
+                    if (lastHit[x]) {
+                        streaks[x]++;
+                    }
+                    scores[x] += 1 + streaks[x];
+                    hits[x]++;
+                    if (inTopRun[x]) {
+                        topRuns[x]++;
+                    }
+                    lastHit[x] = true;
+                } else {
+                    streaks[x] = 0;
+                    inTopRun[x] = false;
+                    lastHit[x] = false;
+                }
+            }
+        }
+
+        // a run carried in from the column before only changes the run at the top of this column
+        int carriedStreak = 0;
+        boolean carried = false;
+        for (int x = 0; x < width; x++) {
+            int endStreak = streaks[x];
+            int topRun = topRuns[x];
+            if (carried && topRun > 0) {
+                scores[x] += topRun * (carriedStreak + 1);
+                if (carriedStreak + topRun - 1 > STREAK_LENGTH) {
+                    lastStreakHits[x] = Math.max(lastStreakHits[x], topRun - 1);
+                }
+                if (topRun == height) {
+                    endStreak += carriedStreak + 1;
+                }
+            }
+            carriedStreak = endStreak;
+            carried = lastHit[x];
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @param x column of the image
+     * @return score of the column, higher for more and longer runs of hits
+     */
+    public int getScore(int x) {
+        return scores[x];
+    }
+
+    /**
+     * @param x column of the image
+     * @return number of pixels in the column with the label
+     */
+    public int getHits(int x) {
+        return hits[x];
+    }
+
+    /**
+     * @param x column of the image
+     * @return first row of the column with the label, 0 if there is none
+     */
+    public int getFirstHit(int x) {
+        return firstHits[x];
+    }
+
+    /**
+     * @param x column of the image
+     * @return last row of the column with the label that continued a run longer than STREAK_LENGTH,
+     * 0 if there is none
+     */
+    public int getLastStreakHit(int x) {
+        return lastStreakHits[x];
+    }
+}
@@ -0,0 +1,224 @@
+package ftc;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * The connected areas of one label in a label plane, each with its bounding box, area and centroid.
+ *
+ * The plane is read once, a row at a time. Each row is split into runs of the label, and every run is
+ * joined with the runs of the row above it that it touches, including diagonally, in a union-find over
+ * the runs. The size and extent of each area are added up while the runs are joined, so nothing is
+ * walked a second time. The cost grows with the number of pixels, however the areas are shaped.
+ */
+public class ConnectedComponents {
+    private int runCount = 0;
+    // per run, the run it has been joined to. A run that is its own parent is the root of an area
+    private int[] parent = new int[64];
+    // per root, the totals of every run joined to it
+    private int[] pixels = new int[64];
+    private long[] sumX = new long[64];
+    private long[] sumY = new long[64];
+    private int[] minX = new int[64];
+    private int[] maxX = new int[64];
+    private int[] minY = new int[64];
+    private int[] maxY = new int[64];
+
+    // per component, the root it was made from
+    private int[] roots;
+
+    /**
+     * finds the areas of label over a whole plane
+     * @param labels row-major labels, see ColorClassifier
+     * @param width width of the plane
+     * @param height height of the plane
+     * @param label label to find the areas of
+     */
+    public ConnectedComponents(byte[] labels, int width, int height, byte label) {
+        this(labels, width, new Rectangle(0, 0, width, height), label, 0, 0);
+    }
+
+    /**
+     * finds the areas of label inside part of a plane
+     * @param labels row-major labels, see ColorClassifier
+     * @param width width of the plane
+     * @param area part of the plane to look in, pixels outside of it are never part of an area
+     * @param label label to find the areas of
+     * @param originX added to every x position reported, the x coordinate of the plane in a larger image
+     * @param originY added to every y position reported
+     */
+    public ConnectedComponents(byte[] labels, int width, Rectangle area, byte label, int originX, int originY) {
+        // runs of the row above and of this row, as [start, end) pairs and their run ids
+        int[] aboveRuns = new int[area.width + 2];
+        int[] aboveIds = new int[area.width / 2 + 1];
+        int[] rowRuns = new int[area.width + 2];
+        int[] rowIds = new int[area.width / 2 + 1];
+        int aboveCount = 0;
+        for (int y = area.y; y < area.y + area.height; y++) {
+            int rowCount = 0;
+            int row = y * width;
+            int x = area.x;
+            int end = area.x + area.width;
+            // the next run of the row above that could touch the current run
+            int above = 0;
+            while (x < end) {
+                if (labels[row + x] != label) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while (x < end && labels[row + x] == label) {
+                    x++;
+                }
+                int id = addRun(start, x, y);
+                // runs above that end before this one starts, diagonally included, can not touch it
+                while (above < aboveCount && aboveRuns[2 * above + 1] < start) {
+                    above++;
+                }
+                for (int a = above; a < aboveCount && aboveRuns[2 * a] <= x; a++) {
+                    union(id, aboveIds[a]);
+                }
+                // the next run of this row starts after x, runs above ending by x can not touch it
+                while (above < aboveCount && aboveRuns[2 * above + 1] <= x) {
+                    above++;
+                }
+                rowRuns[2 * rowCount] = start;
+                rowRuns[2 * rowCount + 1] = x;
+                rowIds[rowCount] = id;
+                rowCount++;
+            }
+            int[] swap = aboveRuns;
+            aboveRuns = rowRuns;
+            rowRuns = swap;
+            swap = aboveIds;
+            aboveIds = rowIds;
+            rowIds = swap;
+            aboveCount = rowCount;
+        }
+
+        int count = 0;
+        roots = new int[runCount];
+        for (int run = 0; run < runCount; run++) {
+            if (parent[run] == run) {
+                roots[count++] = run;
+                minX[run] += originX;
+                maxX[run] += originX;
+                minY[run] += originY;
+                maxY[run] += originY;
+                sumX[run] += (long) originX * pixels[run];
+                sumY[run] += (long) originY * pixels[run];
+            }
+        }
+        roots = Arrays.copyOf(roots, count);
+    }
+
+    /*
+     * adds the run [start, end) of row y as an area of its own
+     */
+    private int addRun(int start, int end, int y) {
+        if (runCount == parent.length) {
+            grow();
+        }
+        int id = runCount++;
+        int length = end - start;
+        parent[id] = id;
+        pixels[id] = length;
+        sumX[id] = (long) (start + end - 1) * length / 2;
+        sumY[id] = (long) y * length;
+        minX[id] = start;
+        maxX[id] = end - 1;
+        minY[id] = y;
+        maxY[id] = y;
+        return id;
+    }
+
+    private void grow() {
+        int size = parent.length * 2;
+        parent = Arrays.copyOf(parent, size);
+        pixels = Arrays.copyOf(pixels, size);
+        sumX = Arrays.copyOf(sumX, size);
+        sumY = Arrays.copyOf(sumY, size);
+        minX = Arrays.copyOf(minX, size);
+        maxX = Arrays.copyOf(maxX, size);
+        minY = Arrays.copyOf(minY, size);
+        maxY = Arrays.copyOf(maxY, size);
+    }
+
+    private int find(int run) {
+        while (parent[run] != run) {
+            // halve the path on the way up so later finds are shorter
+            parent[run] = parent[parent[run]];
+            run = parent[run];
+        }
+        return run;
+    }
+
+    /*
+     * joins the areas of two runs, adding the totals of one root into the other
+     */
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return;
+        }
+        // the older run stays the root, so roots come out in the order their areas are first reached
+        int root = Math.min(rootA, rootB);
+        int child = Math.max(rootA, rootB);
+        parent[child] = root;
+        pixels[root] += pixels[child];
+        sumX[root] += sumX[child];
+        sumY[root] += sumY[child];
+        minX[root] = Math.min(minX[root], minX[child]);
+        maxX[root] = Math.max(maxX[root], maxX[child]);
+        minY[root] = Math.min(minY[root], minY[child]);
+        maxY[root] = Math.max(maxY[root], maxY[child]);
+    }
+
+    /**
+     * @return number of areas, in the order of their first pixel from the top left
+     */
+    public int getCount() {
+        return roots.length;
+    }
+
+    /**
+     * @param component index of the area, from 0 to getCount() - 1
+     * @return number of pixels in the area
+     */
+    public int getArea(int component) {
+        return pixels[roots[component]];
+    }
+
+    /**
+     * @param component index of the area, from 0 to getCount() - 1
+     * @return smallest rectangle holding the area
+     */
+    public Rectangle getBounds(int component) {
+        int root = roots[component];
+        return new Rectangle(minX[root], minY[root], maxX[root] - minX[root] + 1, maxY[root] - minY[root] + 1);
+    }
+
+    /**
+     * @param component index of the area, from 0 to getCount() - 1
+     * @return average position of the pixels of the area, rounded down
+     */
+    public Point getCentroid(int component) {
+        int root = roots[component];
+        return new Point((int) (sumX[root] / pixels[root]), (int) (sumY[root] / pixels[root]));
+    }
+
+    /**
+     * @return index of the area with the most pixels, the first of them if several tie. -1 if there are none
+     */
+    public int getLargest() {
+        int largest = -1;
+        for (int component = 0; component < roots.length; component++) {
+            if (largest < 0 || getArea(component) > getArea(largest)) {
+                largest = component;
+            }
+        }
+        return largest;
+    }
+}
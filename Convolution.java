@@ -0,0 +1,346 @@
+package ftc;
+
+/**
+ * Applies a mask (a matrix function) over every pixel of an image.
+ * mask[i][j] is multiplied by the color at (x+i, y+j), taps that fall outside of the image are skipped,
+ * and the total is normalized by the total of the absolute mask values that were used.
+ *
+ * Masks that are the product of a column and a row (like blurs and Sobel) are run as two 1-D passes,
+ * and any pass whose values are all the same is run with a running sum, so the cost per pixel does
+ * not grow with the size of the mask.
+ */
+public class Convolution {
+    private final int[][] mask;
+    private final int maskWidth;
+    private final int maskHeight;
+
+    // weights[a][b] is the total of |mask[i][j]| for i < a and j < b
+    private final int[][] weights;
+
+    // mask[i][j] == xTaps[i] * yTaps[j], both null if the mask can not be split this way
+    private int[] xTaps;
+    private int[] yTaps;
+
+    /**
+     * @param mask function to perform over the pixels, mask[i][j] is applied to the pixel i to the right
+     *             and j below. masks do not need to be normalized
+     */
+    public Convolution(int[][] mask) {
+        this.mask = mask;
+        this.maskWidth = mask.length;
+        this.maskHeight = mask[0].length;
+        this.weights = new int[maskWidth + 1][maskHeight + 1];
+        for (int i = 0; i < maskWidth; i++) {
+            for (int j = 0; j < maskHeight; j++) {
+                weights[i + 1][j + 1] = weights[i][j + 1] + weights[i + 1][j] - weights[i][j] + Math.abs(mask[i][j]);
+            }
+        }
+        split();
+    }
+
+    /**
+     * @return true if the mask is run as two 1-D passes
+     */
+    public boolean isSeparable() {
+        return xTaps != null;
+    }
+
+    /*
+     * finds xTaps and yTaps such that mask[i][j] == xTaps[i] * yTaps[j], if there are any
+     */
+    private void split() {
+        int firstRow = -1;
+        for (int i = 0; i < maskWidth && firstRow < 0; i++) {
+            for (int j = 0; j < maskHeight; j++) {
+                if (mask[i][j] != 0) {
+                    firstRow = i;
+                    break;
+                }
+            }
+        }
+        if (firstRow < 0) {
+            return;
+        }
+
+        // the row reduced by its greatest common divisor, keeping its sign, is the y pass
+        int divisor = 0;
+        int firstColumn = -1;
+        for (int j = 0; j < maskHeight; j++) {
+            divisor = gcd(divisor, Math.abs(mask[firstRow][j]));
+            if (firstColumn < 0 && mask[firstRow][j] != 0) {
+                firstColumn = j;
+            }
+        }
+        int[] rowTaps = new int[maskHeight];
+        for (int j = 0; j < maskHeight; j++) {
+            rowTaps[j] = mask[firstRow][j] / divisor;
+        }
+
+        int[] columnTaps = new int[maskWidth];
+        for (int i = 0; i < maskWidth; i++) {
+            columnTaps[i] = mask[i][firstColumn] / rowTaps[firstColumn];
+            for (int j = 0; j < maskHeight; j++) {
+                if (mask[i][j] != columnTaps[i] * rowTaps[j]) {
+                    return;
+                }
+            }
+        }
+        xTaps = columnTaps;
+        yTaps = rowTaps;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * applies the mask over every pixel
+     * @param pixels row-major ARGB values of the image
+     * @param width width of the image
+     * @param height height of the image
+     * @return row-major RGB values of the result
+     */
+    public int[] filter(final int[] pixels, final int width, final int height) {
+        final int[] result = new int[width * height];
+        if (!isSeparable()) {
+            RowBands.run(height, (band, startY, endY) -> {
+                for (int y = startY; y < endY; y++) {
+                    for (int x = 0; x < width; x++) {
+                        result[y * width + x] = filterPixel(pixels, width, height, x, y);
+                    }
+                }
+            });
+            return result;
+        }
+
+        final int[][] totals = new int[3][];
+        final int[] plane = new int[width * height];
+        final int[] columns = new int[width * height];
+        for (int channel = 0; channel < 3; channel++) {
+            final int shift = 16 - 8 * channel;
+            RowBands.run(height, (band, startY, endY) -> {
+                for (int i = startY * width; i < endY * width; i++) {
+                    plane[i] = (pixels[i] >> shift) & 0xFF;
+                }
+            });
+            totals[channel] = new int[width * height];
+            filterPlane(plane, columns, totals[channel], width, height);
+        }
+
+        RowBands.run(height, (band, startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                for (int x = 0; x < width; x++) {
+                    int i = y * width + x;
+                    int weight = getWeight(width, height, x, y);
+                    result[i] = ImageHelper.toRGB(totals[0][i] / weight, totals[1][i] / weight, totals[2][i] / weight);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * applies the mask over every pixel of a single channel image
+     * @param image image to filter
+     * @return the result, normalized values outside of 0-255 are clamped
+     */
+    public GrayImage filter(GrayImage image) {
+        final int[] values = filterValues(image.getPixels(), image.getWidth(), image.getHeight());
+        final byte[] result = new byte[values.length];
+        RowBands.run(image.getHeight(), (band, startY, endY) -> {
+            for (int i = startY * image.getWidth(); i < endY * image.getWidth(); i++) {
+                result[i] = (byte) Math.max(0, Math.min(255, values[i]));
+            }
+        });
+        return new GrayImage(result, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * applies the mask over every pixel of a single channel image, keeping the sign of the result
+     * @param gray row-major gray values of the image, read as unsigned
+     * @param width width of the image
+     * @param height height of the image
+     * @return row-major normalized results, negative where the mask has negative values
+     */
+    public int[] filterValues(final byte[] gray, final int width, final int height) {
+        final int[] plane = new int[width * height];
+        RowBands.run(height, (band, startY, endY) -> {
+            for (int i = startY * width; i < endY * width; i++) {
+                plane[i] = gray[i] & 0xFF;
+            }
+        });
+        if (!isSeparable()) {
+            final int[] result = new int[width * height];
+            RowBands.run(height, (band, startY, endY) -> {
+                for (int y = startY; y < endY; y++) {
+                    for (int x = 0; x < width; x++) {
+                        result[y * width + x] = filterValue(plane, width, height, x, y);
+                    }
+                }
+            });
+            return result;
+        }
+
+        // the plane is not needed once it has been read by the y pass, so it holds the result
+        final int[] total = plane;
+        filterPlane(plane, new int[width * height], total, width, height);
+        RowBands.run(height, (band, startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                for (int x = 0; x < width; x++) {
+                    total[y * width + x] /= getWeight(width, height, x, y);
+                }
+            }
+        });
+        return total;
+    }
+
+    /*
+     * runs both 1-D passes over plane and writes the totals, before they are normalized, into total.
+     * columns holds the y pass, total may be plane since plane has been read by then
+     */
+    private void filterPlane(final int[] plane, final int[] columns, final int[] total, final int width,
+                             final int height) {
+        RowBands.run(height, (band, startY, endY) -> passY(plane, columns, width, height, startY, endY));
+        RowBands.run(height, (band, startY, endY) -> passX(columns, total, width, startY, endY));
+    }
+
+    /*
+     * dst(x,y) = total of yTaps[j] * src(x,y+j) over the rows [startY, endY)
+     */
+    private void passY(int[] src, int[] dst, int width, int height, int startY, int endY) {
+        int k = yTaps.length;
+        if (isConstant(yTaps)) {
+            // start from the last row of the band and slide the window up one row at a time
+            int tap = yTaps[0];
+            int last = endY - 1;
+            for (int x = 0; x < width; x++) {
+                int total = 0;
+                for (int j = 0; j < k && last + j < height; j++) {
+                    total += tap * src[(last + j) * width + x];
+                }
+                dst[last * width + x] = total;
+            }
+            for (int y = last - 1; y >= startY; y--) {
+                int enter = y * width;
+                int below = (y + 1) * width;
+                int leave = (y + k) * width;
+                for (int x = 0; x < width; x++) {
+                    int total = dst[below + x] + tap * src[enter + x];
+                    if (y + k < height) {
+                        total -= tap * src[leave + x];
+                    }
+                    dst[enter + x] = total;
+                }
+            }
+            return;
+        }
+        for (int y = startY; y < endY; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                dst[row + x] = 0;
+            }
+            for (int j = 0; j < k && y + j < height; j++) {
+                int tap = yTaps[j];
+                if (tap == 0) {
+                    continue;
+                }
+                int srcRow = (y + j) * width;
+                for (int x = 0; x < width; x++) {
+                    dst[row + x] += tap * src[srcRow + x];
+                }
+            }
+        }
+    }
+
+    /*
+     * dst(x,y) = total of xTaps[i] * src(x+i,y) over the rows [startY, endY)
+     */
+    private void passX(int[] src, int[] dst, int width, int startY, int endY) {
+        int k = xTaps.length;
+        boolean constant = isConstant(xTaps);
+        for (int y = startY; y < endY; y++) {
+            int row = y * width;
+            if (constant) {
+                // start from the right edge and slide the window left one pixel at a time
+                int tap = xTaps[0];
+                int total = 0;
+                for (int x = width - 1; x >= 0; x--) {
+                    total += tap * src[row + x];
+                    if (x + k < width) {
+                        total -= tap * src[row + x + k];
+                    }
+                    dst[row + x] = total;
+                }
+                continue;
+            }
+            for (int x = 0; x < width; x++) {
+                int total = 0;
+                for (int i = 0; i < k && x + i < width; i++) {
+                    total += xTaps[i] * src[row + x + i];
+                }
+                dst[row + x] = total;
+            }
+        }
+    }
+
+    private static boolean isConstant(int[] taps) {
+        for (int tap : taps) {
+            if (tap != taps[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * total of the absolute mask values that fall inside the image for the pixel at (x,y)
+     */
+    private int getWeight(int width, int height, int x, int y) {
+        return weights[Math.min(maskWidth, width - x)][Math.min(maskHeight, height - y)];
+    }
+
+    /*
+     * filterPixel for a single channel image, the normalized total keeping its sign
+     */
+    private int filterValue(int[] plane, int width, int height, int x, int y) {
+        int total = 0;
+        for (int i = 0; i < maskWidth && x + i < width; i++) {
+            for (int j = 0; j < maskHeight && y + j < height; j++) {
+                total += plane[(y + j) * width + x + i] * mask[i][j];
+            }
+        }
+        return total / getWeight(width, height, x, y);
+    }
+
+    /**
+     * Apply the Mask over a pixel with top-left corner at (x,y), one tap at a time
+     *
+     * @param pixels row-major ARGB values of the image
+     * @param width width of the image
+     * @param height height of the image
+     * @param x x coordinate of the image to start with
+     * @param y y coordinate of the image to start with
+     * @return resulting RBG value of applying the mask
+     */
+    public int filterPixel(int[] pixels, int width, int height, int x, int y) {
+        int red = 0;
+        int green = 0;
+        int blue = 0;
+        for (int i = 0; i < maskWidth && x + i < width; i++) {
+            for (int j = 0; j < maskHeight && y + j < height; j++) {
+                int maskValue = mask[i][j];
+                int color = pixels[(y + j) * width + x + i];
+                red += ImageHelper.red(color) * maskValue;
+                green += ImageHelper.green(color) * maskValue;
+                blue += ImageHelper.blue(color) * maskValue;
+            }
+        }
+        int weight = getWeight(width, height, x, y);
+        return ImageHelper.toRGB(red / weight, green / weight, blue / weight);
+    }
+}
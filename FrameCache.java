@@ -0,0 +1,140 @@
+package ftc;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps recently read images in memory, so analysing the same captures again, for example while
+ * trying out thresholds, does not decode them again.
+ *
+ * Images are keyed by their path and only reused while the file has the same modification time and
+ * length, so an image that is saved again is read again. Once the images held add up to more than the
+ * byte limit, the ones used longest ago are dropped. An image larger than the limit is never kept.
+ * The images are shared by every caller and must not be changed.
+ */
+public class FrameCache {
+    private final long maxBytes;
+    private long bytes = 0;
+    private int hits = 0;
+    private int misses = 0;
+    // in order of use, least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /*
+     * an image along with the version of the file it was read from
+     */
+    private static class Entry {
+        final long lastModified;
+        final long length;
+        final BufferedImage image;
+        final long bytes;
+
+        Entry(long lastModified, long length, BufferedImage image, long bytes) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.image = image;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * @param maxBytes most memory the images held may take up
+     */
+    public FrameCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * reads file, from memory if it has not changed since it was last read
+     * @param file image to read, a raw frame or anything ImageIO can decode
+     * @return the image, null if it can not be decoded
+     */
+    public BufferedImage read(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+                hits++;
+                return entry.image;
+            }
+            misses++;
+        }
+
+        // decoded without holding the lock so other images can be read at the same time
+        BufferedImage image = RawFrame.readImage(file);
+        if (image == null) {
+            return null;
+        }
+        long size = sizeOf(image, file);
+        synchronized (this) {
+            Entry old = entries.remove(path);
+            if (old != null) {
+                bytes -= old.bytes;
+            }
+            if (size <= maxBytes) {
+                entries.put(path, new Entry(lastModified, length, image, size));
+                bytes += size;
+                evict();
+            }
+        }
+        return image;
+    }
+
+    /*
+     * drops the least recently used images until the rest fit
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> oldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && oldest.hasNext()) {
+            bytes -= oldest.next().getValue().bytes;
+            oldest.remove();
+        }
+    }
+
+    /*
+     * memory taken by image, the size of the file for a mapped raw frame
+     */
+    private static long sizeOf(BufferedImage image, File file) {
+        if (file.getName().endsWith(RawFrame.EXTENSION)) {
+            return file.length();
+        }
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * drops every image
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return memory taken by the images held
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of reads answered from memory
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of reads that had to read the file
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+}
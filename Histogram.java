@@ -0,0 +1,125 @@
+package ftc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts of non-negative values in buckets whose width grows with the value, so any value up to
+ * Long.MAX_VALUE is recorded to within about 1.5% in a fixed amount of memory, in the same way as
+ * HdrHistogram.
+ *
+ * Values below 128 get a bucket each. Above that, every power of two is split into 64 buckets of
+ * equal width. Values can be recorded from any number of threads at once without locking.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values below this are counted exactly
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param value value to count, negative values are counted as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        min.accumulateAndGet(value, Math::min);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /*
+     * bucket of value. Above LINEAR_LIMIT the top 7 bits of the value pick the bucket within its power
+     * of two
+     */
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+    }
+
+    /*
+     * largest value that is counted in bucket index
+     */
+    private static long highestValueOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long top = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return smallest value recorded, 0 if there are none
+     */
+    public long getMin() {
+        return getCount() == 0 ? 0 : min.get();
+    }
+
+    /**
+     * @return largest value recorded, 0 if there are none
+     */
+    public long getMax() {
+        return getCount() == 0 ? 0 : max.get();
+    }
+
+    /**
+     * @return average of the values recorded, 0 if there are none
+     */
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : total.get() / (double) n;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return a value that at least that percentage of the values recorded are no larger than, to
+     *         within the width of its bucket. 0 if there are none
+     */
+    public long getPercentile(double percentile) {
+        long n = getCount();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int index = 0; index < BUCKETS; index++) {
+            seen += counts.get(index);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(index), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * forgets every value recorded. Values recorded at the same time may be partly kept
+     */
+    public void reset() {
+        for (int index = 0; index < BUCKETS; index++) {
+            counts.set(index, 0);
+        }
+        count.set(0);
+        total.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+}
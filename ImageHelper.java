@@ -1,7 +1,22 @@
 package ftc;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
 /* Helper methods for encoding/decoding RGB values */
 public class ImageHelper {
+    // weights of red, green and blue in a gray value
+    static final double RED_WEIGHT = 0.299;
+    static final double GREEN_WEIGHT = 0.587;
+    static final double BLUE_WEIGHT = 0.114;
+    // the same weights scaled by 2^16 for integer math, they add up to exactly 2^16 so white stays 255
+    static final int RED_WEIGHT_16 = 19595;
+    static final int GREEN_WEIGHT_16 = 38470;
+    static final int BLUE_WEIGHT_16 = 7471;
 
     /**
      * take a RBG int (ie 0xFFRRGGBB) and returns an array of the red, green,and blue values
@@ -46,17 +61,292 @@ public class ImageHelper {
      * @return a RBG int composed of the corresponding grayscale given values and a 0xFF alpha channel
      */
     public static int toGrayScale(int red, int green, int blue) {
-        int gray = (int) ((0.299*red)  + (0.587 * green) + (0.114 * blue));
-        return toRGB(gray, gray, gray);
+        return toGrayRGB(gray(red, green, blue));
     }
     
     public static int toGrayScale(int rgb) {
-    	int[] colors = fromRGB(rgb);
-    	return toGrayScale(colors[0], colors[1], colors[2]);
+    	return toGrayRGB(gray(rgb));
     }
     
     public static int getGrayValue(int rgb) {
-    	int grayscale = toGrayScale(rgb);
-    	return fromRGB(grayscale)[0];
+    	return gray(rgb);
+    }
+
+    /*
+     * Allocation free accessors for a packed RGB int (ie 0xFFRRGGBB), for use inside per pixel loops
+     * where fromRGB would create a new array for every pixel
+     */
+
+    /**
+     * @param rgb 32 bit int of the form 0xAARRGGBB
+     * @return red value of rgb (0-255)
+     */
+    public static int red(int rgb) {
+        return (rgb >> 16) & 0xFF;
+    }
+
+    /**
+     * @param rgb 32 bit int of the form 0xAARRGGBB
+     * @return green value of rgb (0-255)
+     */
+    public static int green(int rgb) {
+        return (rgb >> 8) & 0xFF;
+    }
+
+    /**
+     * @param rgb 32 bit int of the form 0xAARRGGBB
+     * @return blue value of rgb (0-255)
+     */
+    public static int blue(int rgb) {
+        return rgb & 0xFF;
+    }
+
+    /**
+     * @param rgb 32 bit int of the form 0xAARRGGBB
+     * @return red + green + blue of rgb (0-765)
+     */
+    public static int sum(int rgb) {
+        return red(rgb) + green(rgb) + blue(rgb);
+    }
+
+    /**
+     * @param red value from 0-255
+     * @param green value from 0-255
+     * @param blue value from 0-255
+     * @return grayscale value (0-255) of the given values
+     */
+    public static int gray(int red, int green, int blue) {
+        return (int) ((RED_WEIGHT * red) + (GREEN_WEIGHT * green) + (BLUE_WEIGHT * blue));
+    }
+
+    /**
+     * @param rgb 32 bit int of the form 0xAARRGGBB
+     * @return grayscale value (0-255) of rgb
+     */
+    public static int gray(int rgb) {
+        return gray(red(rgb), green(rgb), blue(rgb));
+    }
+
+    /**
+     * the same weights as gray in 16 bit fixed point, rounded to the nearest value instead of truncated,
+     * so it can be 1 brighter than gray. For images that store gray values on their own, such as
+     * GrayImage, where there is no double formula to stay compatible with
+     * @param rgb 32 bit int of the form 0xAARRGGBB
+     * @return grayscale value (0-255) of rgb
+     */
+    public static int grayRounded(int rgb) {
+        return (RED_WEIGHT_16 * red(rgb) + GREEN_WEIGHT_16 * green(rgb) + BLUE_WEIGHT_16 * blue(rgb) + (1 << 15)) >> 16;
+    }
+
+    /**
+     * @param gray value from 0-255
+     * @return a RBG int with all three channels set to gray and a 0xFF alpha channel
+     */
+    public static int toGrayRGB(int gray) {
+        return toRGB(gray, gray, gray);
+    }
+
+    /**
+     * reads every pixel of image in one bulk call instead of one getRGB per pixel
+     * @param image image to read
+     * @return row-major array of ARGB values, width*height long. For TYPE_INT_ARGB images this is the
+     * backing array of the raster itself, so callers must not modify it. Anything else, mapped raw
+     * frames included, is copied onto the heap whole, use getPixels(image, startY, rows, pixels) to
+     * read a few rows at a time instead
+     */
+    public static int[] getPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (isPackedARGB(image)) {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        return getPixels(image, 0, height, new int[width * height]);
+    }
+
+    /**
+     * reads the rows [startY, startY + rows) of image. TYPE_INT_ARGB, TYPE_INT_RGB, TYPE_3BYTE_BGR and
+     * TYPE_4BYTE_ABGR images, which is what ImageIO decodes to, are read straight from their raster,
+     * mapped raw frames straight from the mapping, anything else through getRGB
+     * @param image image to read
+     * @param startY first row to read
+     * @param rows number of rows to read
+     * @param pixels array of at least width*rows to fill with row-major ARGB values
+     * @return pixels
+     */
+    public static int[] getPixels(BufferedImage image, int startY, int rows, int[] pixels) {
+        int width = image.getWidth();
+        WritableRaster raster = image.getRaster();
+        switch (getDirectType(image)) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB: {
+                int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                int alpha = (image.getType() == BufferedImage.TYPE_INT_RGB) ? 0xFF000000 : 0;
+                for (int y = 0; y < rows; y++) {
+                    int in = offset(raster, 0, startY + y, stride, 1);
+                    int out = y * width;
+                    for (int x = 0; x < width; x++) {
+                        pixels[out + x] = alpha | data[in + x];
+                    }
+                }
+                return pixels;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+                int stride = model.getScanlineStride();
+                int pixelStride = model.getPixelStride();
+                // bands are red, green, blue and alpha if there is one
+                int[] bandOffsets = model.getBandOffsets();
+                int r = bandOffsets[0];
+                int g = bandOffsets[1];
+                int b = bandOffsets[2];
+                boolean hasAlpha = bandOffsets.length > 3;
+                int a = hasAlpha ? bandOffsets[3] : 0;
+                for (int y = 0; y < rows; y++) {
+                    int in = offset(raster, 0, startY + y, stride, pixelStride);
+                    int out = y * width;
+                    for (int x = 0; x < width; x++, in += pixelStride) {
+                        int alpha = hasAlpha ? (data[in + a] & 0xFF) << 24 : 0xFF000000;
+                        pixels[out + x] = alpha | (data[in + r] & 0xFF) << 16 | (data[in + g] & 0xFF) << 8
+                                | (data[in + b] & 0xFF);
+                    }
+                }
+                return pixels;
+            }
+            default:
+                if (RawFrame.getPixels(image, startY, rows, pixels) != null) {
+                    return pixels;
+                }
+                return image.getRGB(0, startY, width, rows, pixels, 0, width);
+        }
+    }
+
+    /**
+     * @param image image to make a copy of
+     * @return type to create an image like image with. Images such as mapped raw frames have no type
+     * a new image can be created with, TYPE_INT_ARGB is used for them
+     */
+    public static int getImageType(BufferedImage image) {
+        return (image.getType() == BufferedImage.TYPE_CUSTOM) ? BufferedImage.TYPE_INT_ARGB : image.getType();
+    }
+
+    /**
+     * writes every pixel of image in one bulk call instead of one setRGB per pixel
+     * @param image image to write to
+     * @param pixels row-major array of ARGB values, width*height long
+     */
+    public static void setPixels(BufferedImage image, int[] pixels) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (isPackedARGB(image)) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            System.arraycopy(pixels, 0, data, 0, width * height);
+            return;
+        }
+        setPixels(image, 0, height, pixels);
+    }
+
+    /**
+     * writes the rows [startY, startY + rows) of image, straight into the raster for the same types
+     * getPixels reads directly
+     * @param image image to write to
+     * @param startY first row to write
+     * @param rows number of rows to write
+     * @param pixels row-major ARGB values, at least width*rows long
+     */
+    public static void setPixels(BufferedImage image, int startY, int rows, int[] pixels) {
+        int width = image.getWidth();
+        WritableRaster raster = image.getRaster();
+        switch (getDirectType(image)) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB: {
+                int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                int keep = (image.getType() == BufferedImage.TYPE_INT_RGB) ? 0x00FFFFFF : 0xFFFFFFFF;
+                for (int y = 0; y < rows; y++) {
+                    int out = offset(raster, 0, startY + y, stride, 1);
+                    int in = y * width;
+                    for (int x = 0; x < width; x++) {
+                        data[out + x] = pixels[in + x] & keep;
+                    }
+                }
+                return;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+                int stride = model.getScanlineStride();
+                int pixelStride = model.getPixelStride();
+                int[] bandOffsets = model.getBandOffsets();
+                int r = bandOffsets[0];
+                int g = bandOffsets[1];
+                int b = bandOffsets[2];
+                boolean hasAlpha = bandOffsets.length > 3;
+                int a = hasAlpha ? bandOffsets[3] : 0;
+                for (int y = 0; y < rows; y++) {
+                    int out = offset(raster, 0, startY + y, stride, pixelStride);
+                    int in = y * width;
+                    for (int x = 0; x < width; x++, out += pixelStride) {
+                        int argb = pixels[in + x];
+                        data[out + r] = (byte) (argb >> 16);
+                        data[out + g] = (byte) (argb >> 8);
+                        data[out + b] = (byte) argb;
+                        if (hasAlpha) {
+                            data[out + a] = (byte) (argb >>> 24);
+                        }
+                    }
+                }
+                return;
+            }
+            default:
+                image.setRGB(0, startY, width, rows, pixels, 0, width);
+        }
+    }
+
+    /*
+     * type of image if its raster can be read and written directly by getPixels and setPixels,
+     * TYPE_CUSTOM otherwise. Sub-images are fine, their raster shares the data of the parent
+     */
+    private static int getDirectType(BufferedImage image) {
+        int type = image.getType();
+        WritableRaster raster = image.getRaster();
+        switch (type) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB:
+                return (raster.getDataBuffer() instanceof DataBufferInt
+                        && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) ? type
+                        : BufferedImage.TYPE_CUSTOM;
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return (raster.getDataBuffer() instanceof DataBufferByte
+                        && raster.getSampleModel() instanceof ComponentSampleModel) ? type
+                        : BufferedImage.TYPE_CUSTOM;
+            default:
+                return BufferedImage.TYPE_CUSTOM;
+        }
+    }
+
+    /*
+     * index in the data array of raster of the first element of pixel (x, y)
+     */
+    private static int offset(WritableRaster raster, int x, int y, int stride, int pixelStride) {
+        return raster.getDataBuffer().getOffset() + (y - raster.getSampleModelTranslateY()) * stride
+                + (x - raster.getSampleModelTranslateX()) * pixelStride;
+    }
+
+    /*
+     * true if image is stored as one plain int per pixel in ARGB order, so its data array can be used directly
+     */
+    private static boolean isPackedARGB(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+            return false;
+        }
+        WritableRaster raster = image.getRaster();
+        return raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getOffset() == 0
+                && ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == image.getWidth();
     }
 }
@@ -0,0 +1,214 @@
+package ftc;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Saves images on background threads, so the analysis of the next image does not wait for the
+ * previous results to be compressed and written to disk.
+ *
+ * Images are saved in one of the formats:
+ * png  - compressed at the configured level, 0 (fastest, largest) to 9 (slowest, smallest)
+ * ppm  - uncompressed binary RGB with a short header, much faster to write and readable by most viewers,
+ *        for intermediate images that are only looked at while debugging
+ * none - nothing is written
+ *
+ * At most a few images wait to be written at once. Once that many are waiting the thread saving
+ * another one writes it itself, so images can not pile up in memory faster than they are written.
+ * An image must not be changed after it has been passed to write, its overlay can be: write takes a
+ * copy of the marks before returning. The time each image takes to write is recorded in StageMetrics
+ * as StageMetrics.ENCODE.
+ */
+public class ImageOutput implements Closeable {
+    public static final String PNG = "png";
+    public static final String PPM = "ppm";
+    public static final String NONE = "none";
+
+    private final ThreadPoolExecutor executor;
+    private final List<Future<File>> writes = new ArrayList<>();
+    private String format = PNG;
+    private int compressionLevel = -1;
+
+    /**
+     * @param threads number of images to write at once
+     */
+    public ImageOutput(int threads) {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * @param format PNG, PPM or NONE
+     */
+    public void setFormat(String format) {
+        if (!isFormat(format)) {
+            throw new IllegalArgumentException("unknown output format " + format);
+        }
+        this.format = format;
+    }
+
+    /**
+     * @return true if format is PNG, PPM or NONE
+     */
+    public static boolean isFormat(String format) {
+        return format.equals(PNG) || format.equals(PPM) || format.equals(NONE);
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * @param level deflate level of png images, 0 to 9, or -1 for the default of the png writer
+     */
+    public void setCompressionLevel(int level) {
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("compression level must be between 0 and 9: " + level);
+        }
+        this.compressionLevel = level;
+    }
+
+    /**
+     * queues image to be saved in the current format
+     * @param image image to save, must not be changed afterwards
+     * @param file file to save it to, used as given whatever the format
+     * @return the file once it has been written, or the exception writing it failed with
+     */
+    public Future<File> write(BufferedImage image, File file) {
+        return write(image, null, file);
+    }
+
+    /**
+     * queues image to be saved in the current format with overlay drawn on it. The marks are copied
+     * before this returns and drawn on the thread saving the image, onto a copy of it, and not at all
+     * if nothing is written
+     * @param image image to save, must not be changed afterwards
+     * @param overlay marks to draw over the image, null for none. Later changes to it are not saved
+     * @param file file to save it to, used as given whatever the format
+     * @return the file once it has been written, or the exception writing it failed with
+     */
+    public synchronized Future<File> write(final BufferedImage image, Overlay overlay, final File file) {
+        final String format = this.format;
+        final int compressionLevel = this.compressionLevel;
+        final Overlay marks = (overlay != null && !format.equals(NONE)) ? overlay.copy() : null;
+        Future<File> write = executor.submit(() -> {
+            if (format.equals(NONE)) {
+                return file;
+            }
+            long time = StageMetrics.time();
+            long bytes = StageMetrics.allocatedBytes();
+            BufferedImage annotated = (marks != null) ? marks.render(image) : image;
+            if (format.equals(PNG)) {
+                writePNG(annotated, file, compressionLevel);
+            } else {
+                writePPM(annotated, file);
+            }
+            StageMetrics.record(StageMetrics.ENCODE, time, bytes);
+            return file;
+        });
+        writes.add(write);
+        return write;
+    }
+
+    /**
+     * waits for every queued image to be written and stops the threads
+     * @throws IOException the first failure of any write, after all of them have finished
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        executor.shutdown();
+        IOException failure = null;
+        for (Future<File> write : writes) {
+            try {
+                write.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = (e.getCause() instanceof IOException) ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for images to be written", e);
+            }
+        }
+        writes.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * writes image as a png
+     * @param image image to write
+     * @param file file to write it to
+     * @param compressionLevel deflate level 0 to 9, or -1 for the default of the png writer
+     */
+    public static void writePNG(BufferedImage image, File file, int compressionLevel) throws IOException {
+        if (compressionLevel < 0) {
+            if (!ImageIO.write(image, PNG, file)) {
+                throw new IOException("no png writer for " + file);
+            }
+            return;
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(PNG).next();
+        // deleted first so a shorter image does not leave the end of the old file behind
+        file.delete();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            if (out == null) {
+                throw new IOException("can not write to " + file);
+            }
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            // the png writer uses deflate level (int) (9 * (1 - quality)), the half keeps the float
+            // from rounding down to the level below
+            param.setCompressionQuality(Math.max(0f, 1f - (compressionLevel + 0.5f) / 9f));
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * writes image as a binary (P6) ppm, 3 bytes per pixel with no compression
+     * @param image image to write
+     * @param file file to write it to
+     */
+    public static void writePPM(BufferedImage image, File file) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        byte[] bytes = new byte[width * 3];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    bytes[3 * x] = (byte) ImageHelper.red(row[x]);
+                    bytes[3 * x + 1] = (byte) ImageHelper.green(row[x]);
+                    bytes[3 * x + 2] = (byte) ImageHelper.blue(row[x]);
+                }
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ftc;
+
+/**
+ * An image along with copies of it at 1/2, 1/4, 1/8... of its size, each made by averaging 2x2 blocks of
+ * the level above it. Searching a small level first tells a search at full size where to look.
+ */
+public class ImagePyramid {
+    private final int[][] levels;
+    private final int[] widths;
+    private final int[] heights;
+
+    /**
+     * @param pixels row-major ARGB values of the full size image, level 0
+     * @param width width of the image
+     * @param height height of the image
+     * @param levelCount number of levels including the full size one. Fewer are made if a level
+     *                   would be less than a pixel wide or high
+     */
+    public ImagePyramid(int[] pixels, int width, int height, int levelCount) {
+        int count = 1;
+        while (count < levelCount && (width >> count) > 0 && (height >> count) > 0) {
+            count++;
+        }
+        levels = new int[count][];
+        widths = new int[count];
+        heights = new int[count];
+        levels[0] = pixels;
+        widths[0] = width;
+        heights[0] = height;
+        for (int level = 1; level < count; level++) {
+            widths[level] = widths[level - 1] / 2;
+            heights[level] = heights[level - 1] / 2;
+            levels[level] = downsample(levels[level - 1], widths[level - 1], widths[level], heights[level]);
+        }
+    }
+
+    /*
+     * averages each 2x2 block of src into one pixel, an odd last row or column of src is dropped
+     */
+    private static int[] downsample(final int[] src, final int srcWidth, final int width, int height) {
+        final int[] dst = new int[width * height];
+        RowBands.run(height, (band, startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                int top = 2 * y * srcWidth;
+                int bottom = top + srcWidth;
+                for (int x = 0; x < width; x++) {
+                    int a = src[top + 2 * x];
+                    int b = src[top + 2 * x + 1];
+                    int c = src[bottom + 2 * x];
+                    int d = src[bottom + 2 * x + 1];
+                    // the +2 rounds to the nearest value instead of always down
+                    int red = (ImageHelper.red(a) + ImageHelper.red(b) + ImageHelper.red(c) + ImageHelper.red(d) + 2) >> 2;
+                    int green = (ImageHelper.green(a) + ImageHelper.green(b) + ImageHelper.green(c) + ImageHelper.green(d) + 2) >> 2;
+                    int blue = (ImageHelper.blue(a) + ImageHelper.blue(b) + ImageHelper.blue(c) + ImageHelper.blue(d) + 2) >> 2;
+                    dst[y * width + x] = ImageHelper.toRGB(red, green, blue);
+                }
+            }
+        });
+        return dst;
+    }
+
+    /**
+     * @return number of levels, including the full size one
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * @param level 0 for full size, each level after is half the size of the one before
+     * @return row-major ARGB values of the level
+     */
+    public int[] getPixels(int level) {
+        return levels[level];
+    }
+
+    public int getWidth(int level) {
+        return widths[level];
+    }
+
+    public int getHeight(int level) {
+        return heights[level];
+    }
+
+    /**
+     * @param level level to convert from
+     * @return how many full size pixels one pixel of the level covers in each direction
+     */
+    public int getScale(int level) {
+        return 1 << level;
+    }
+}
@@ -1,18 +1,57 @@
 package ftc;
 
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Child of BufferedImage for applying a mask (a matrix function) over a image
  */
 public class MaskImage extends BufferedImage {
 	private BufferedImage srcImage;
+	private byte[] labels;
+	// area of the image the labels cover, the whole image unless the
+	// analysis was limited to regions
+	private int labelX = 0;
+	private int labelY = 0;
+	private int labelWidth = 0;
+	private int labelHeight = 0;
+	// red or blue pixel counts over any rectangle, built once per analysis.
+	// Black pixels are the rest of the rectangle
+	private IntegralImage coloredSums;
 	private int[][] mask;
 	private int width = 0;
 	private int height = 0;
-	public static int color = 0;
-	private static int red = 0;
-	private static int blue = 0;
+	private ColorStats stats;
+	private Point redButton;
+	private Point blueButton;
+	private Rectangle redBeacon;
+	private Rectangle blueBeacon;
+	private BeaconResult result;
+	// marks showing what the analysis found, drawn only when the image is
+	// displayed or saved so the labels in the raster stay as classified
+	private final Overlay overlay = new Overlay();
+
+	// where the buttons found are reported, null (the default) to not report
+	// them so concurrent analyses never wait on a shared stream
+	private static volatile PrintStream log;
+
+	// color of the lines through each button found
+	static final int BUTTON_MARK = ImageHelper.toRGB(0, 255, 0);
+
+	// per pixel classification labels, see ColorClassifier
+	static final byte NONE = 0;
+	static final byte RED = 1;
+	static final byte BLUE = 2;
+
+	// full size, 1/2, 1/4 and 1/8
+	static final int PYRAMID_LEVELS = 4;
+	// coarse columns added on each side of the beacon found on the smallest level
+	static final int PYRAMID_MARGIN = 2;
 
 	/**
 	 * creates a MaskImage from a srcImage
@@ -21,14 +60,163 @@ public class MaskImage extends BufferedImage {
 	 *            BufferedImage to apply mask over
 	 */
 	public MaskImage(BufferedImage srcImage) {
-		super(srcImage.getWidth(), srcImage.getHeight(), srcImage.getType());
+		super(srcImage.getWidth(), srcImage.getHeight(), ImageHelper.getImageType(srcImage));
 		this.srcImage = srcImage;
 		this.height = srcImage.getHeight();
 		this.width = srcImage.getWidth();
 	}
 
 	/**
-	 * creates a MaskImage from a srcImage and applies a mask over it
+	 * reports which color the image is mostly made of to the log, see setLog
+	 * 
+	 * @return RED or BLUE, whichever the last analysis found more pixels of,
+	 *         NONE if neither or if no analysis has been performed
+	 */
+	public byte getColor() {
+		ColorStats current = (stats != null) ? stats : ColorStats.EMPTY;
+		int red = current.getRedPixels();
+		int blue = current.getBluePixels();
+		byte color = current.getDominantColor();
+		PrintStream out = log;
+		if (out != null && color == RED) {
+			out.print("the image is mostly red with  " + red + " red pixels to " + blue + "blue pixels");
+		}
+		if (out != null && color == BLUE) {
+			out.print("the image is mostly blue with  " + blue + " blue pixels to " + red + "red pixels");
+		}
+		return color;
+	}
+
+	/**
+	 * reports the buttons each analysis finds
+	 * 
+	 * @param out
+	 *            stream to print them to, such as System.out, or null to not
+	 *            print anything
+	 */
+	public static void setLog(PrintStream out) {
+		log = out;
+	}
+
+	/**
+	 * @return everything the last analysis found, null until an analysis has
+	 *         been performed. Buttons it did not find are null in the result
+	 */
+	public BeaconResult getResult() {
+		return result;
+	}
+
+	/**
+	 * @return marks showing what the last analysis found, a line across and
+	 *         down the image through each button
+	 */
+	public Overlay getOverlay() {
+		return overlay;
+	}
+
+	/**
+	 * @return a copy of this image with the overlay drawn on, this image
+	 *         itself if there is nothing to draw
+	 */
+	public BufferedImage getAnnotatedImage() {
+		return overlay.render(this);
+	}
+
+	/**
+	 * @return red and blue pixel counts of this image, null until an
+	 *         analysis has been performed
+	 */
+	public ColorStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @param color
+	 *            RED or BLUE
+	 * @return center of the button on that side of the beacon, null if it
+	 *         has not been found
+	 */
+	public Point getButton(byte color) {
+		Point button = (color == RED) ? redButton : blueButton;
+		return (button == null) ? null : new Point(button);
+	}
+
+	/**
+	 * @param color
+	 *            RED or BLUE
+	 * @return area between the edges found for that side of the beacon, which
+	 *         the button is searched for in. null if it has not been found
+	 */
+	public Rectangle getBeacon(byte color) {
+		Rectangle beacon = (color == RED) ? redBeacon : blueBeacon;
+		return (beacon == null) ? null : new Rectangle(beacon);
+	}
+
+	/**
+	 * @param color
+	 *            RED, BLUE or NONE
+	 * @return the connected areas of that color found by the last analysis,
+	 *         in coordinates of the whole image. null before an analysis
+	 */
+	public ConnectedComponents getComponents(byte color) {
+		return getComponents(color, new Rectangle(labelX, labelY, labelWidth, labelHeight));
+	}
+
+	/**
+	 * @param color
+	 *            RED, BLUE or NONE
+	 * @param area
+	 *            part of the image to look in
+	 * @return the connected areas of that color inside area, in coordinates
+	 *         of the whole image. null before an analysis
+	 */
+	public ConnectedComponents getComponents(byte color, Rectangle area) {
+		if (labels == null) {
+			return null;
+		}
+		Rectangle inside = area.intersection(new Rectangle(labelX, labelY, labelWidth, labelHeight));
+		if (inside.isEmpty()) {
+			inside = new Rectangle(labelX, labelY, 0, 0);
+		}
+		inside.translate(-labelX, -labelY);
+		return new ConnectedComponents(labels, labelWidth, inside, color, labelX, labelY);
+	}
+
+	/**
+	 * finds a button from the connected areas instead of from column counts:
+	 * the largest area of color is taken as that half of the beacon, and the
+	 * largest dark area inside it that does not reach its edges as the
+	 * button
+	 *
+	 * @param color
+	 *            RED or BLUE
+	 * @return center of the button, null if there is no such area
+	 */
+	public Point findButtonComponent(byte color) {
+		ConnectedComponents halves = getComponents(color);
+		if (halves == null || halves.getCount() == 0) {
+			return null;
+		}
+		Rectangle half = halves.getBounds(halves.getLargest());
+		ConnectedComponents dark = getComponents(NONE, half);
+		Point button = null;
+		int buttonArea = 0;
+		for (int i = 0; i < dark.getCount(); i++) {
+			Rectangle bounds = dark.getBounds(i);
+			boolean enclosed = bounds.x > half.x && bounds.y > half.y
+					&& bounds.x + bounds.width < half.x + half.width
+					&& bounds.y + bounds.height < half.y + half.height;
+			if (enclosed && dark.getArea(i) > buttonArea) {
+				button = dark.getCentroid(i);
+				buttonArea = dark.getArea(i);
+			}
+		}
+		return button;
+	}
+
+	/**
+	 * creates a MaskImage from a srcImage and uses mask to look for the
+	 * beacon in it
 	 * 
 	 * @param srcImage
 	 *            BufferedImage to apply mask over
@@ -36,21 +224,131 @@ public class MaskImage extends BufferedImage {
 	 *            function to perform over the pixels. masks do not need to be
 	 *            normalized
 	 */
-	public static void getColor() {
-		if (color == 2) {
-			System.out.print("the image is mostly red with  " + red + " red pixels to " + blue + "blue pixels");
+	public MaskImage(BufferedImage srcImage, int[][] mask) {
+		this(srcImage);
+		setMask(mask);
 
-		}
-		if (color == 1) {
-			System.out.print("the image is mostly blue with  " + blue + " blue pixels to " + red + "red pixels");
+	}
 
-		}
+	/**
+	 * creates a MaskImage from a srcImage and either applies a mask over it or
+	 * uses it to look for the beacon
+	 * 
+	 * @param srcImage
+	 *            BufferedImage to apply mask over
+	 * @param mask
+	 *            function to perform over the pixels. masks do not need to be
+	 *            normalized
+	 * @param isConvolution
+	 *            true to convolve srcImage with mask, false to look for the
+	 *            beacon
+	 */
+	public MaskImage(BufferedImage srcImage, int[][] mask, boolean isConvolution) {
+		this(srcImage);
+		setMask(mask, isConvolution);
 	}
 
-	public MaskImage(BufferedImage srcImage, int[][] mask) {
+	/**
+	 * creates a MaskImage from a srcImage and looks for the beacon only inside
+	 * the given regions
+	 * 
+	 * @param srcImage
+	 *            BufferedImage to look for the beacon in
+	 * @param regions
+	 *            areas of srcImage the beacon can be in
+	 */
+	public MaskImage(BufferedImage srcImage, List<Rectangle> regions) {
 		this(srcImage);
-		setMask(mask);
+		analyse(regions);
+	}
 
+	/**
+	 * looks for the beacon only inside region. Pixels outside of it are not
+	 * classified and stay empty, positions are still reported in coordinates
+	 * of the whole image
+	 * 
+	 * @param region
+	 *            area of srcImage the beacon is in
+	 */
+	public void analyse(Rectangle region) {
+		analyse(Collections.singletonList(region));
+	}
+
+	/**
+	 * looks for the beacon only inside the given regions. The search covers
+	 * the smallest rectangle holding all of them, with the pixels that are in
+	 * none of them treated as black
+	 * 
+	 * @param regions
+	 *            areas of srcImage the beacon can be in, they may overlap
+	 */
+	public void analyse(List<Rectangle> regions) {
+		performAnalyses(regions);
+	}
+
+	/**
+	 * looks for the beacon coarse to fine. The columns the beacon is in are
+	 * found on a 1/8 size copy of the image, then only those columns are
+	 * analysed at full size. Button positions match a full size analysis to
+	 * within a few pixels
+	 */
+	public void analyseCoarseToFine() {
+		analyse(findBeaconWindow());
+	}
+
+	/*
+	 * the columns of the image, with a margin, that the beacon covers on the
+	 * smallest level of a pyramid of the image. Whole columns are used so the
+	 * rows the full size search picks are the same as without the window
+	 */
+	private Rectangle findBeaconWindow() {
+		ImagePyramid pyramid = new ImagePyramid(ImageHelper.getPixels(srcImage), width, height, PYRAMID_LEVELS);
+		int level = pyramid.getLevelCount() - 1;
+		int coarseWidth = pyramid.getWidth(level);
+		int coarseHeight = pyramid.getHeight(level);
+		int[] coarsePixels = pyramid.getPixels(level);
+		ColorClassifier classifier = ColorClassifier.getDefault();
+		byte[] coarseLabels = new byte[coarsePixels.length];
+		classifier.classify(coarsePixels, 0, coarsePixels.length, coarseLabels, 0);
+
+		// spread out from the best column of each color while the columns are
+		// still at least a quarter as full
+		int left = coarseWidth;
+		int right = 0;
+		for (byte color : new byte[] { BLUE, RED }) {
+			ColumnProjection columns = new ColumnProjection(coarseLabels, coarseWidth, coarseHeight, color);
+			int best = -1;
+			int bestScore = 0;
+			for (int x = 0; x < coarseWidth; x++) {
+				if (columns.getScore(x) > bestScore) {
+					best = x;
+					bestScore = columns.getScore(x);
+				}
+			}
+			if (best < 0) {
+				continue;
+			}
+			int minHits = Math.max(1, columns.getHits(best) / 4);
+			int start = best;
+			while (start > 0 && columns.getHits(start - 1) >= minHits) {
+				start--;
+			}
+			int end = best + 1;
+			while (end < coarseWidth && columns.getHits(end) >= minHits) {
+				end++;
+			}
+			left = Math.min(left, start);
+			right = Math.max(right, end);
+		}
+		if (right <= left) {
+			return new Rectangle(0, 0, width, height);
+		}
+
+		int scale = pyramid.getScale(level);
+		int x1 = Math.max(0, (left - PYRAMID_MARGIN) * scale);
+		// columns dropped while shrinking an odd width belong to the last coarse column
+		int x2 = (right + PYRAMID_MARGIN >= coarseWidth) ? width : (right + PYRAMID_MARGIN) * scale;
+		return new Rectangle(x1, 0, x2 - x1, height);
 	}
 
 	/**
@@ -61,43 +359,131 @@ public class MaskImage extends BufferedImage {
 	 *            normalized
 	 */
 	public void setMask(int[][] mask) {
-		this.mask = mask;
-		// performMask();
-		performAnalyses();
+		setMask(mask, false);
 	}
 
 	/**
-	 * Apply the Mask over whole image
+	 * applies a mask over the srcImage
+	 * 
+	 * @param mask
+	 *            function to perform over the pixels. masks do not need to be
+	 *            normalized
+	 * @param isConvolution
+	 *            true to convolve srcImage with mask, false to look for the
+	 *            beacon
 	 */
-	private void performAnalyses() {
-		int[] currentcolor;
-		int currentcolortotal;
-		int red = 1;
-		int blue = 2;
-		int not = 0;
-		int color = 0;
-		int lastcolor = 0;
-		int blacktobluetot = 0;
-		int bluetoblacktot = 0;
-		int blacktoredtot = 0;
-		int redtoblacktot = 0;
-		int num1 = 0;
-		int num2 = 0;
-		int num3 = 0;
-		int num4 = 0;
-
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				// int maskRGB = getMaskColor(x,y);
-				int maskRGB = getColorFilter(x, y);
-
-				this.setRGB(x, y, maskRGB);
-				currentcolor = ImageHelper.fromRGB(maskRGB);
+	public void setMask(int[][] mask, boolean isConvolution) {
+		this.mask = mask;
+		if (isConvolution) {
+			performMask();
+		} else {
+			performAnalyses(Collections.singletonList(new Rectangle(0, 0, width, height)));
+		}
+	}
 
+	/**
+	 * Apply the Mask over the given regions of the image
+	 */
+	private void performAnalyses(List<Rectangle> regions) {
+		Rectangle bounds = null;
+		List<Rectangle> clippedRegions = new ArrayList<>();
+		for (Rectangle region : regions) {
+			Rectangle clipped = region.intersection(new Rectangle(0, 0, width, height));
+			if (clipped.isEmpty()) {
+				continue;
 			}
+			clippedRegions.add(clipped);
+			bounds = (bounds == null) ? clipped : bounds.union(clipped);
+		}
+		if (bounds == null) {
+			throw new IllegalArgumentException("no region is inside the image");
+		}
+		labelX = bounds.x;
+		labelY = bounds.y;
+		labelWidth = bounds.width;
+		labelHeight = bounds.height;
+
+		// the labels are kept so later stages never have to classify a pixel again
+		// nothing from an earlier analysis may be mistaken for this one
+		result = null;
+		redButton = null;
+		blueButton = null;
+		redBeacon = null;
+		blueBeacon = null;
+		overlay.clear();
+		// one clock reading between stages serves both the result and StageMetrics
+		long analyseBytes = StageMetrics.allocatedBytes();
+		long start = System.nanoTime();
+		labels = new byte[labelWidth * labelHeight];
+		stats = ColorStats.EMPTY;
+		for (Rectangle region : clippedRegions) {
+			classify(region);
+		}
+		long classified = System.nanoTime();
+		StageMetrics.recordElapsed(StageMetrics.CLASSIFY, classified - start, analyseBytes);
+		long countBytes = StageMetrics.allocatedBytes();
+		coloredSums = new IntegralImage(labels, labelWidth, labelHeight, RED, BLUE);
+		if (clippedRegions.size() > 1) {
+			// regions may overlap, so count from the finished labels instead
+			stats = countLabels();
 		}
+		long counted = System.nanoTime();
+		StageMetrics.recordElapsed(StageMetrics.COUNT, counted - classified, countBytes);
+		long searchBytes = StageMetrics.allocatedBytes();
 		FindxStart();
-		
+		long searched = System.nanoTime();
+		StageMetrics.recordElapsed(StageMetrics.FIND_X_START, searched - counted, searchBytes);
+		result = new BeaconResult(redButton, blueButton, redBeacon, blueBeacon, stats, classified - start,
+				counted - classified, searched - counted);
+		StageMetrics.recordElapsed(StageMetrics.ANALYSE, searched - start, analyseBytes);
+	}
+
+	/**
+	 * classifies the pixels of region a strip at a time, writing the labels
+	 * and the resulting colors in one go per strip
+	 */
+	private void classify(final Rectangle region) {
+		BufferedImage src = srcImage;
+		BufferedImage dst = this;
+		if (region.width != width || region.height != height) {
+			src = srcImage.getSubimage(region.x, region.y, region.width, region.height);
+			dst = getSubimage(region.x, region.y, region.width, region.height);
+		}
+		// one snapshot for the whole region, so a change of thresholds
+		// meanwhile can not classify part of it one way and part another
+		final ColorClassifier.Snapshot classifier = ColorClassifier.getDefault()
+				.snapshotFor(region.width * region.height);
+		final boolean useTable = classifier.hasTable();
+		Tiles.run(src, dst, 0, (srcPixels, srcRows, maskPixels, startY, rows) -> {
+			final int bands = RowBands.bandCount(rows);
+			final int[] bandRed = new int[bands];
+			final int[] bandBlue = new int[bands];
+			RowBands.run(rows, bands, (band, bandStart, bandEnd) -> {
+				// counted locally so bands never write to the same cache line per pixel
+				int red = 0;
+				int blue = 0;
+				for (int y = bandStart; y < bandEnd; y++) {
+					int labelRow = (region.y - labelY + startY + y) * labelWidth + region.x - labelX;
+					if (!useTable) {
+						classifier.classify(srcPixels, y * region.width, (y + 1) * region.width, labels, labelRow);
+					}
+					for (int x = 0; x < region.width; x++) {
+						int i = y * region.width + x;
+						byte label = useTable ? classifier.getLabel(srcPixels[i]) : labels[labelRow + x];
+						if (label == RED) {
+							red++;
+						} else if (label == BLUE) {
+							blue++;
+						}
+						labels[labelRow + x] = label;
+						maskPixels[i] = getLabelColor(label);
+					}
+				}
+				bandRed[band] = red;
+				bandBlue[band] = blue;
+			});
+			stats = stats.add(ColorStats.merge(bandRed, bandBlue));
+		});
 	}
 
 	int apex = 0;
@@ -110,392 +496,186 @@ public class MaskImage extends BufferedImage {
 
 	
 
-	int lastred = 0;
-
 	private void FindxStart() {
-		int[] currentColor = new int[3];
-		int[] lastColor = new int[3];
+		ColumnProjection blueColumns = new ColumnProjection(labels, labelWidth, labelHeight, BLUE);
+		ColumnProjection redColumns = new ColumnProjection(labels, labelWidth, labelHeight, RED);
 		int highestRed = 0;
 		int highestBlue = 0;
 		int highestRedx = 0;
 		int highestBluex = 0;
-		int bstreak = 0;
-		int rstreak = 0;
-		int lastBlue = 0;
-		int lastRed = 0;
-		int blueLine = 0;
-		int redLine = 0;
-		int firstblueTemp = 0;
 		int firstblue = 0;
-		int firstredTemp = 0;
 		int firstred = 0;
-		int lastbluetemp = 0;
 		int lastblue = 0;
-		int lastredtemp = 0;
-		boolean firstBluePicked = false;
-		boolean firstRedPicked = false;
-
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				int maskRGB = getColorFilter(x, y);
-				currentColor = ImageHelper.fromRGB(maskRGB);
-				int currentBlue = currentColor[2];
-				int currentRed = currentColor[0];
-				if (currentBlue == 255) {
-					if (bstreak > 20) {
-						lastbluetemp = y;
+		int lastred = 0;
 
-					}
-					if (!firstBluePicked) {
-						firstblueTemp = y;
-						firstBluePicked = true;
-					}
-					if (lastBlue == 255) {
-						bstreak++;
-					}
-					blueLine++;
-					blueLine += bstreak;
-				} else {
-					bstreak = 0;
-				}
-				if (currentRed == 255) {
-					if (rstreak > 20) {
-						lastredtemp = y;
-
-					}
-					if (!firstRedPicked) {
-						firstredTemp = y;
-						firstRedPicked = true;
-					}
-					if (lastRed == 255) {
-						rstreak++;
-					}
-					redLine++;
-					redLine += rstreak;
-				} else {
-					rstreak = 0;
-				}
-				lastBlue = currentBlue;
-				lastRed = currentRed;
-			}
-			if (blueLine > highestBlue) {
+		for (int x = 0; x < labelWidth; x++) {
+			if (blueColumns.getScore(x) > highestBlue) {
 				highestBluex = x;
-				highestBlue = blueLine;
-				firstblue = firstblueTemp;
-				lastblue = lastbluetemp;
+				highestBlue = blueColumns.getScore(x);
+				firstblue = blueColumns.getFirstHit(x);
+				lastblue = blueColumns.getLastStreakHit(x);
 
 			}
-			if (redLine > highestRed) {
+			if (redColumns.getScore(x) > highestRed) {
 				highestRedx = x;
-				highestRed = redLine;
-				firstred = firstredTemp;
-				lastred = lastredtemp;
+				highestRed = redColumns.getScore(x);
+				firstred = redColumns.getFirstHit(x);
+				lastred = redColumns.getLastStreakHit(x);
 
 			}
-			firstBluePicked = false;
-			firstRedPicked = false;
-			firstblueTemp = 0;
-			lastbluetemp = 0;
-			firstredTemp = 0;
-			lastredtemp = 0;
-			blueLine = 0;
-			redLine = 0;
 		}
 
-		//printHLine(firstred, 0);
-		//printHLine(lastred, 0);
-		// printHLine(firstblue, 0);
-		// printHLine(lastblue, 0);
+		//overlay.addHLine(firstred + labelY, ImageHelper.toRGB(255, 255, 255));
+		//overlay.addHLine(lastred + labelY, ImageHelper.toRGB(255, 255, 255));
+		// overlay.addHLine(firstblue + labelY, ImageHelper.toRGB(255, 255, 255));
+		// overlay.addHLine(lastblue + labelY, ImageHelper.toRGB(255, 255, 255));
 		 findEdge(highestBluex, firstblue, lastred, "BLUE");
 		findEdge(highestRedx, firstred, lastred, "RED");
-
 	}
 
 	private void findEdge(int x, int y1, int y2, String color) {
-		int[] currentColor;
+		long time = StageMetrics.time();
+		long bytes = StageMetrics.allocatedBytes();
 		int colorVal = 0;
 		int startx = 0;
 		int endx = 0;
 		for (int x1 = x; x1 > 0; x1 += -1) {
-			for (int y = y1; y < y2; y++) {
-
-				int maskRGB = getColorFilter(x1, y);
-				currentColor = ImageHelper.fromRGB(maskRGB);
-				int colortotal = currentColor[0] + currentColor[2];
-				if (colortotal > 0) {
-					colorVal++;
-				}
-
-			}
+			colorVal = getColoredCount(x1, y1, x1 + 1, y2);
 			if (colorVal < ((y2 - y1) / 2)) {
 				startx = x1;
-				//printVLine(startx, 0);
+				//overlay.addVLine(startx + labelX, ImageHelper.toRGB(255, 255, 255));
 				break;
 			}
-			colorVal = 0;
 		}
-		colorVal = 0;
-
-		for (int x1 = x; x1 < width; x1 += 1) {
-			for (int y = y1; y < y2; y++) {
 
-				int maskRGB = getColorFilter(x1, y);
-				currentColor = ImageHelper.fromRGB(maskRGB);
-				int colortotal = currentColor[0] + currentColor[2];
-				if (colortotal > 0) {
-					colorVal++;
-				}
-
-			}
+		for (int x1 = x; x1 < labelWidth; x1 += 1) {
+			colorVal = getColoredCount(x1, y1, x1 + 1, y2);
 			if (colorVal < ((y2 - y1) / 4)) {
 				endx = x1;
-				//printVLine(endx, 0);
+				//overlay.addVLine(endx + labelX, ImageHelper.toRGB(255, 255, 255));
 				break;
 			}
-			colorVal = 0;
+		}
+		// no area between the edges means the beacon was not found
+		Rectangle beacon = (endx > startx && y2 > y1)
+				? new Rectangle(startx + labelX, y1 + labelY, endx - startx, y2 - y1) : null;
+		if (color.equals("RED")) {
+			redBeacon = beacon;
+		} else {
+			blueBeacon = beacon;
 		}
 		findButton(startx, endx, y1, y2, color);
+		StageMetrics.record(StageMetrics.FIND_EDGE, time, bytes);
 	}
 
-	private void findButton(int x1, int x2, int y1, int y2, String Color) {
-		int blackVal = 0;
-		int offset = Math.abs(x1 - x2) / 4;
-		int yOffset = 2 * Math.abs(y1 - y2) / 3;
-		int[] currentColor = new int[3];
-		int blackxVal = 0;
-		int blackyVal = 0;
-
-		for (int x = (x1 + offset); x < (x2 - offset); x++) {
-			for (int y = (y1 + yOffset); y < y2; y++) {
-				int maskRGB = getColorFilter(x, y);
-				currentColor = ImageHelper.fromRGB(maskRGB);
-				int colortotal = currentColor[0] + currentColor[2];
-				if (colortotal == 0) {
-					blackxVal += x;
-					blackyVal += y;
-					blackVal++;
-				}
+	/*
+	 * red and blue pixels of the whole label plane
+	 */
+	private ColorStats countLabels() {
+		int red = 0;
+		int blue = 0;
+		for (byte label : labels) {
+			if (label == RED) {
+				red++;
+			} else if (label == BLUE) {
+				blue++;
 			}
 		}
-		int buttonx = blackxVal / blackVal;
-		int buttony = blackyVal / blackVal;
-		System.out.println("The " + Color + " button  is at (" + buttonx + ", " + buttony);
-
-		printVLine(buttonx, 1);
-		printHLine(buttony, 1);
+		return new ColorStats(red, blue);
 	}
 
-	private void printVLine(int xVal, int color) {
-		int greenval= 0;
-		int redval = 0;
-		int blueval = 0;
-		if (color == 0) {
-
-			greenval = 255;
-			redval = 255;
-			blueval = 255;
-		}
-		if (color == 1) {
+	/*
+	 * number of red or blue pixels in the rectangle [x1, x2) by [y1, y2)
+	 */
+	private int getColoredCount(int x1, int y1, int x2, int y2) {
+		return coloredSums.count(x1, y1, x2, y2);
+	}
 
-			greenval = 255;
-			redval = 0;
-			blueval = 0;
-		}
-		for (int z = 0; z < height; z++) {
-			this.setRGB(xVal, z, ImageHelper.toRGB(redval, greenval, blueval));
+	/*
+	 * number of red or blue pixels in an area given in the coordinates of
+	 * this image, 0 before an analysis
+	 */
+	int getColoredCount(Rectangle area) {
+		if (coloredSums == null) {
+			return 0;
 		}
+		return getColoredCount(area.x - labelX, area.y - labelY, area.x + area.width - labelX,
+				area.y + area.height - labelY);
 	}
 
-	private void printHLine(int yVal, int color) {
-		int greenval= 0;
-		int redval = 0;
-		int blueval = 0;
-		if (color == 0) {
+	private void findButton(int x1, int x2, int y1, int y2, String Color) {
+		long time = StageMetrics.time();
+		long bytes = StageMetrics.allocatedBytes();
+		int blackVal = 0;
+		int offset = Math.abs(x1 - x2) / 4;
+		int yOffset = 2 * Math.abs(y1 - y2) / 3;
+		int blackxVal = 0;
+		int blackyVal = 0;
 
-			greenval = 255;
-			redval = 255;
-			blueval = 255;
-		}
-		if (color == 1) {
+		int startx = x1 + offset;
+		int endx = x2 - offset;
+		int starty = y1 + yOffset;
 
-			greenval = 255;
-			redval = 0;
-			blueval = 0;
+		// total up the black pixels a column at a time for x and a row at a time for y
+		for (int x = startx; x < endx; x++) {
+			int columnBlack = coloredSums.countOthers(x, starty, x + 1, y2);
+			blackxVal += x * columnBlack;
+			blackVal += columnBlack;
 		}
-		for (int z = 0; z < width; z++) {
-			this.setRGB(z, yVal, ImageHelper.toRGB(redval, greenval, blueval));
-
+		for (int y = starty; y < y2; y++) {
+			blackyVal += y * coloredSums.countOthers(startx, y, endx, y + 1);
 		}
-	}
-
-	
-	
-	private void performMask() {
-		int cConcentration = 0;
-		int[] coloryValues = new int[height];
-		int largest = 0;
-		int largestY = 0;
-		int average1st = 0;
-		int average2nd = 0;
-		int counter1 = 0;
-		int counter2 = 0;
-		int lastcolor[] = new int[3];
-		int lastcolortotal = 0;
-		int currentcolortotal = 0;
-		int currentcolor[] = new int[3];
-		int xAvg = 0;
-		int firstx = 0;
-		int firsty = 0;
-		int secondy = 0;
-		boolean detected = false;
-		boolean firstTime = true;
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				int maskRGB = getMaskColor(x, y);
-				// int maskRGB = getColorFilter(x,y);
-				this.setRGB(x, y, maskRGB);
-				currentcolor = ImageHelper.fromRGB(maskRGB);
-				currentcolortotal = currentcolor[0] - currentcolor[2];
-				if (Math.abs(lastcolortotal - currentcolortotal) > 60) {
-					if (firstTime == true) {
-
-						firsty = y;
-						firstTime = false;
-					}
-					if ((Math.abs(y - firsty) > 60)) {
-
-						firstx = x;
-
-						if (Math.abs(x - firstx) < 10) {
-
-							detected = true;
-							xAvg = xAvg + x;
-
-						}
-					}
-
-				}
-
-				lastcolortotal = currentcolortotal;
-				int[] cConcentrationV = ImageHelper.fromRGB(maskRGB);
-				cConcentration = cConcentrationV[1] + cConcentrationV[0] + cConcentrationV[2] + cConcentration;
-
-			}
-			coloryValues[y] = cConcentration;
-			cConcentration = 0;
-			if (detected) {
-				counter1++;
+		PrintStream out = log;
+		if (blackVal == 0) {
+			// no black pixels where the button should be, so it is not found
+			// and stays null in the result
+			if (out != null) {
+				out.println("The " + Color + " button was not found");
 			}
+			StageMetrics.record(StageMetrics.FIND_BUTTON, time, bytes);
+			return;
 		}
-		for (int z = 0; z < counter1; z++) {
-			// this.setRGB((xAvg/counter1), (secondy + z),
-			// ImageHelper.toRGB(0,255,0));
+		// back from label coordinates to coordinates of the whole image
+		int buttonx = blackxVal / blackVal + labelX;
+		int buttony = blackyVal / blackVal + labelY;
+		if (out != null) {
+			out.println("The " + Color + " button  is at (" + buttonx + ", " + buttony);
+		}
+		if (Color.equals("RED")) {
+			redButton = new Point(buttonx, buttony);
+		} else {
+			blueButton = new Point(buttonx, buttony);
 		}
-		System.out.println(firsty);
-		System.out.println(xAvg);
-		System.out.println(counter1);
-
-		// findBeacon();
 
+		overlay.addVLine(buttonx, BUTTON_MARK);
+		overlay.addHLine(buttony, BUTTON_MARK);
+		StageMetrics.record(StageMetrics.FIND_BUTTON, time, bytes);
 	}
 
-	
-
 	/**
-	 * Apply the Mask over a pixel with top-left corner at (x,y)
-	 * 
-	 * @param x
-	 *            x coordinate of srcImage to start with
-	 * @param y
-	 *            y coordinate of srcImage to start with
-	 * @return resulting RBG value of applying the mask
+	 * Apply the Mask over whole image as a convolution
 	 */
-	private int getColorFilter(int x, int y) {
-		int oldcolors[] = ImageHelper.fromRGB(srcImage.getRGB(x, y));
-		int[] newColors = { 0, 0, 0 };
-		for (int x1 = 0; x1 <= 2; x1++) {
-			if ((oldcolors[0] + oldcolors[1] + oldcolors[2] > 400) && (oldcolors[0] + oldcolors[1] + oldcolors[2] < 600)
-					&& x1 == 0) {
-				// newColors[1] = 100;
-				// newColors[2] = 120;
-				// newColors[0] = 100;
-			}
-			if (x1 == 1) {
-				continue;
-			}
-			if (x1 == 0) {
-
-			}
-			if ((oldcolors[0] + oldcolors[1] + oldcolors[2] > 440) && oldcolors[x1] > 200
-					&& oldcolors[x1] > 50 + .5 * ((oldcolors[1] + oldcolors[0] + oldcolors[2]) - (oldcolors[x1]))) {
-				newColors[1] = 0;
-				newColors[2] = 0;
-				newColors[0] = 0;
-				newColors[x1] = 255;
-			} else {
-				// newColors[x1] = 0;
-			}
-
-			if (x1 == 0 && oldcolors[1] > oldcolors[2] && oldcolors[0] < (oldcolors[1] + 60)) {
-				newColors[1] = 0;
-				newColors[2] = 0;
-				newColors[0] = 0;
-
-			}
-
-		}
-		if ((oldcolors[0] + oldcolors[1] + oldcolors[2]) > 700) {
-			newColors[1] = 0;
-			newColors[2] = 0;
-			newColors[0] = 0;
-		}
-
-		if (newColors[0] > newColors[2]) {
-			red += 1;
-		}
-		if (newColors[0] < newColors[2]) {
-			blue += 1;
-		}
-		return ImageHelper.toRGB(newColors[0], newColors[1], newColors[2]);
+	private void performMask() {
+		final Convolution convolution = new Convolution(mask);
+		// each strip also needs the rows the mask reaches below it
+		Tiles.run(srcImage, this, mask[0].length - 1, (srcPixels, srcRows, maskPixels, startY, rows) -> {
+			int[] filtered = convolution.filter(srcPixels, width, srcRows);
+			System.arraycopy(filtered, 0, maskPixels, 0, rows * width);
+		});
 	}
 
-	private int getMaskColor(int x, int y) {
-		int averageColor = 0;
-		int weight = 0;
-		int[] newColors = new int[3];
-
-		/*
-		 * TODO 4 starting loop through the mask matrix, for index [i,j],
-		 * multiple the value by the color in [x+i,y+j] and total up the values
-		 * http://dasl.mem.drexel.edu/alumni/bGreen/www.pages.drexel.edu/_weg22/
-		 * maskdes.jpg be sure to account for edge cases the resulting mask
-		 * value will not be always be in the range 0-255, you need to normalize
-		 * it. normalize it by dividing the value by the total of the values in
-		 * the matrix (add all the numbers together) ex [[1,2,3]] would have a
-		 * total value of 1+2+3 = 6. use the imageHelper class to convert colors
-		 * to/from RBG value
-		 */
-		for (int i = 0; i < mask.length; i++) {
-			for (int j = 0; j < mask[0].length; j++) {
-				int maskValue = mask[i][j];
-				int picturePosx = x + i;
-				int picturePosy = y + j;
-				if (picturePosx >= width || picturePosy >= height) {
-					continue;
-				}
-				int oldColor = srcImage.getRGB(picturePosx, picturePosy);
-				int oldColors[] = ImageHelper.fromRGB(oldColor);
-
-				int grayColor = ImageHelper.getGrayValue(oldColor);
-				newColors[0] += oldColors[0] * maskValue;
-				newColors[1] += oldColors[1] * maskValue;
-				newColors[2] += oldColors[2] * maskValue;
-
-				weight += Math.abs(maskValue);
-			}
+	/**
+	 * @param label
+	 *            RED, BLUE or NONE
+	 * @return pure red, pure blue or black
+	 */
+	static int getLabelColor(byte label) {
+		if (label == RED) {
+			return ImageHelper.toRGB(255, 0, 0);
+		}
+		if (label == BLUE) {
+			return ImageHelper.toRGB(0, 0, 255);
 		}
-		int newGray = Math.abs(averageColor / weight);
-		// return newGray;
-		return ImageHelper.toRGB(newColors[0] / weight, newColors[1] / weight, newColors[2] / weight);
+		return ImageHelper.toRGB(0, 0, 0);
 	}
 }
@@ -0,0 +1,177 @@
+package ftc;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Marks to draw over an image, such as the lines through a button or the box around a beacon, kept
+ * apart from the image itself so finding them never has to touch its pixels. The marks are only
+ * drawn when the image is displayed or saved, onto a copy (see render) or onto an image that is
+ * going to be thrown away anyway (see drawTo).
+ *
+ * Positions are in the coordinates of the image the overlay belongs to. Marks can be added from one
+ * thread while another draws them.
+ */
+public class Overlay {
+    // kinds of mark
+    private static final int LINE = 0;
+    private static final int HORIZONTAL_LINE = 1;
+    private static final int VERTICAL_LINE = 2;
+    private static final int BOX = 3;
+    private static final int POINT = 4;
+
+    // half the width of the square a point is drawn as
+    private static final int POINT_RADIUS = 1;
+
+    /*
+     * a single mark, x2 and y2 are its far corner for a box and its end for a line
+     */
+    private static class Mark {
+        final int kind;
+        final int x1;
+        final int y1;
+        final int x2;
+        final int y2;
+        final int rgb;
+
+        Mark(int kind, int x1, int y1, int x2, int y2, int rgb) {
+            this.kind = kind;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.rgb = rgb;
+        }
+    }
+
+    private final List<Mark> marks = new ArrayList<>();
+
+    /**
+     * line from (x1, y1) to (x2, y2), both ends included
+     * @param rgb color as from ImageHelper.toRGB
+     */
+    public synchronized void addLine(int x1, int y1, int x2, int y2, int rgb) {
+        marks.add(new Mark(LINE, x1, y1, x2, y2, rgb));
+    }
+
+    /**
+     * line across the whole width of the image at y
+     * @param rgb color as from ImageHelper.toRGB
+     */
+    public synchronized void addHLine(int y, int rgb) {
+        marks.add(new Mark(HORIZONTAL_LINE, 0, y, 0, y, rgb));
+    }
+
+    /**
+     * line down the whole height of the image at x
+     * @param rgb color as from ImageHelper.toRGB
+     */
+    public synchronized void addVLine(int x, int rgb) {
+        marks.add(new Mark(VERTICAL_LINE, x, 0, x, 0, rgb));
+    }
+
+    /**
+     * outline of box, just inside its edges
+     * @param rgb color as from ImageHelper.toRGB
+     */
+    public synchronized void addBox(Rectangle box, int rgb) {
+        marks.add(new Mark(BOX, box.x, box.y, box.x + box.width - 1, box.y + box.height - 1, rgb));
+    }
+
+    /**
+     * small filled square centered on (x, y)
+     * @param rgb color as from ImageHelper.toRGB
+     */
+    public synchronized void addPoint(int x, int y, int rgb) {
+        marks.add(new Mark(POINT, x, y, x, y, rgb));
+    }
+
+    /**
+     * @return number of marks
+     */
+    public synchronized int size() {
+        return marks.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return marks.isEmpty();
+    }
+
+    /**
+     * @return a new overlay with the marks this one has now, left as it is when marks are added to or
+     *         cleared from this one afterwards
+     */
+    public synchronized Overlay copy() {
+        Overlay copy = new Overlay();
+        copy.marks.addAll(marks);
+        return copy;
+    }
+
+    /**
+     * removes every mark
+     */
+    public synchronized void clear() {
+        marks.clear();
+    }
+
+    /**
+     * draws the marks onto image, in the order they were added. Marks outside the image are cut off
+     * @param image image to draw on
+     */
+    public void drawTo(BufferedImage image) {
+        List<Mark> toDraw;
+        synchronized (this) {
+            if (marks.isEmpty()) {
+                return;
+            }
+            toDraw = new ArrayList<>(marks);
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Graphics2D graphics = image.createGraphics();
+        try {
+            for (Mark mark : toDraw) {
+                graphics.setColor(new Color(mark.rgb, true));
+                switch (mark.kind) {
+                    case LINE:
+                        graphics.drawLine(mark.x1, mark.y1, mark.x2, mark.y2);
+                        break;
+                    case HORIZONTAL_LINE:
+                        graphics.drawLine(0, mark.y1, width - 1, mark.y1);
+                        break;
+                    case VERTICAL_LINE:
+                        graphics.drawLine(mark.x1, 0, mark.x1, height - 1);
+                        break;
+                    case BOX:
+                        graphics.drawRect(mark.x1, mark.y1, mark.x2 - mark.x1, mark.y2 - mark.y1);
+                        break;
+                    case POINT:
+                        graphics.fillRect(mark.x1 - POINT_RADIUS, mark.y1 - POINT_RADIUS, 2 * POINT_RADIUS + 1,
+                                2 * POINT_RADIUS + 1);
+                        break;
+                }
+            }
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    /**
+     * @param image image the marks belong to, left as it is
+     * @return image itself if there are no marks, otherwise a copy of it with the marks drawn on
+     */
+    public BufferedImage render(BufferedImage image) {
+        if (isEmpty()) {
+            return image;
+        }
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), ImageHelper.getImageType(image));
+        int[] pixels = ImageHelper.getPixels(image);
+        copy.setRGB(0, 0, image.getWidth(), image.getHeight(), pixels, 0, image.getWidth());
+        drawTo(copy);
+        return copy;
+    }
+}
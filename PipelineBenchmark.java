@@ -0,0 +1,308 @@
+package ftc;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures each stage of the image pipeline so optimizations can be compared against a stable baseline.
+ *
+ * Every stage is run over every input at every size: a number of warmup runs that are thrown away,
+ * then measured runs. For each it reports the average time per run, the throughput in megapixels per
+ * second and the bytes allocated per run by the calling thread. Row bands are run on the calling
+ * thread while measuring so that every allocation is counted.
+ *
+ * usage: PipelineBenchmark [-sizes 640x480,1920x1080] [-inputs synthetic,res/example16.jpeg]
+ *                          [-stages name,...] [-warmup n] [-iterations n]
+ *
+ * a real input is scaled to each size. Console output from the analysis is discarded while measuring.
+ * The PixelKernels stages run on the vector API when the JVM is started with
+ * --add-modules jdk.incubator.vector, run again with -Dftc.vector=false to measure the plain loops.
+ */
+public class PipelineBenchmark {
+    private static final String SYNTHETIC = "synthetic";
+
+    /**
+     * one stage of the pipeline, run once over image
+     */
+    interface Stage {
+        void run(BufferedImage image, int[] pixels);
+    }
+
+    private static final String[] STAGE_NAMES = {
+            "fromRGB", "toRGB", "toGrayScale", "PixelKernels.gray", "mask", "PixelKernels.mask", "classify",
+            "classifyBatch", "ConnectedComponents", "RGBImage.mask", "RGBImage.gray", "MaskImage.analyses",
+            "MaskImage.convolution", "GrayImage", "GrayImage.convolution", "SobelImage", "SobelEdges"
+    };
+
+    // keeps the JIT from discarding per pixel work whose result is otherwise unused
+    static volatile int sink;
+
+    // output buffers of the whole-array stages, reused so they are not counted as allocation
+    private static int[] intScratch = new int[0];
+    private static byte[] byteScratch = new byte[0];
+
+    private static int[] intScratch(int length) {
+        if (intScratch.length != length) {
+            intScratch = new int[length];
+        }
+        return intScratch;
+    }
+
+    private static byte[] byteScratch(int length) {
+        if (byteScratch.length != length) {
+            byteScratch = new byte[length];
+        }
+        return byteScratch;
+    }
+
+    private static Stage getStage(String name) {
+        switch (name) {
+            case "fromRGB":
+                return (image, pixels) -> {
+                    int total = 0;
+                    for (int pixel : pixels) {
+                        total += ImageHelper.fromRGB(pixel)[1];
+                    }
+                    sink = total;
+                };
+            case "toRGB":
+                return (image, pixels) -> {
+                    int total = 0;
+                    for (int pixel : pixels) {
+                        total += ImageHelper.toRGB(ImageHelper.red(pixel), ImageHelper.green(pixel), ImageHelper.blue(pixel));
+                    }
+                    sink = total;
+                };
+            case "toGrayScale":
+                return (image, pixels) -> {
+                    int total = 0;
+                    for (int pixel : pixels) {
+                        total += ImageHelper.toGrayScale(pixel);
+                    }
+                    sink = total;
+                };
+            case "PixelKernels.gray":
+                return (image, pixels) -> {
+                    int[] gray = intScratch(pixels.length);
+                    PixelKernels.gray(pixels, gray, 0, pixels.length);
+                    sink = gray[pixels.length / 2];
+                };
+            case "mask":
+                return (image, pixels) -> {
+                    int[] masked = intScratch(pixels.length);
+                    for (int i = 0; i < pixels.length; i++) {
+                        masked[i] = pixels[i] & RGBImage.GREEN_MASK;
+                    }
+                    sink = masked[pixels.length / 2];
+                };
+            case "PixelKernels.mask":
+                return (image, pixels) -> {
+                    int[] masked = intScratch(pixels.length);
+                    PixelKernels.mask(pixels, masked, 0, pixels.length, RGBImage.GREEN_MASK);
+                    sink = masked[pixels.length / 2];
+                };
+            case "classify":
+                return (image, pixels) -> {
+                    ColorClassifier classifier = ColorClassifier.getDefault();
+                    byte[] labels = byteScratch(pixels.length);
+                    for (int i = 0; i < pixels.length; i++) {
+                        labels[i] = classifier.classify(pixels[i]);
+                    }
+                    sink = labels[pixels.length / 2];
+                };
+            case "classifyBatch":
+                return (image, pixels) -> {
+                    byte[] labels = byteScratch(pixels.length);
+                    ColorClassifier.getDefault().classify(pixels, 0, pixels.length, labels, 0);
+                    sink = labels[pixels.length / 2];
+                };
+            case "ConnectedComponents":
+                return (image, pixels) -> {
+                    byte[] labels = byteScratch(pixels.length);
+                    ColorClassifier.getDefault().classify(pixels, 0, pixels.length, labels, 0);
+                    sink = new ConnectedComponents(labels, image.getWidth(), image.getHeight(), MaskImage.BLUE).getCount();
+                };
+            case "RGBImage.mask":
+                return (image, pixels) -> new RGBImage(image, RGBImage.GREEN_MASK, false);
+            case "RGBImage.gray":
+                return (image, pixels) -> new RGBImage(image, RGBImage.NO_MASK, true);
+            case "MaskImage.analyses":
+                return (image, pixels) -> new MaskImage(image, main.BLUR_MASK);
+            case "MaskImage.convolution":
+                return (image, pixels) -> new MaskImage(image, main.BLUR_MASK, true);
+            case "GrayImage":
+                return (image, pixels) -> new GrayImage(image);
+            case "GrayImage.convolution":
+                return (image, pixels) -> new Convolution(main.BLUR_MASK).filter(new GrayImage(image));
+            case "SobelImage":
+                return (image, pixels) -> new SobelImage(image, true);
+            case "SobelEdges":
+                return (image, pixels) -> new SobelEdges(image, true);
+            default:
+                throw new IllegalArgumentException("unknown stage " + name);
+        }
+    }
+
+    /**
+     * creates a frame with a noisy gray background and a blue and a red beacon half, each with a dark
+     * button, so every stage including the button search has something to find
+     * @param width width of the frame
+     * @param height height of the frame
+     * @return the frame, always the same for the same size
+     */
+    static BufferedImage createSynthetic(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        int[] pixels = new int[width * height];
+        Random random = new Random(width * 31L + height);
+        int beaconTop = height / 6;
+        int beaconBottom = 5 * height / 6;
+        int blueLeft = width / 5;
+        int middle = width / 2;
+        int redRight = 4 * width / 5;
+        int buttonY = beaconTop + 5 * (beaconBottom - beaconTop) / 6;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(30);
+                int pixel;
+                if (y >= beaconTop && y < beaconBottom && x >= blueLeft && x < redRight) {
+                    boolean isBlue = x < middle;
+                    int buttonX = isBlue ? (blueLeft + middle) / 2 : (middle + redRight) / 2;
+                    if (Math.abs(x - buttonX) < (middle - blueLeft) / 6
+                            && Math.abs(y - buttonY) < (beaconBottom - beaconTop) / 14) {
+                        pixel = ImageHelper.toRGB(16 + noise / 4, 16 + noise / 4, 16 + noise / 4);
+                    } else if (isBlue) {
+                        pixel = ImageHelper.toRGB(90 + noise, 110 + noise, 235 + noise / 2);
+                    } else {
+                        pixel = ImageHelper.toRGB(235 + noise / 2, 110 + noise, 90 + noise);
+                    }
+                } else {
+                    int gray = 60 + random.nextInt(120);
+                    pixel = ImageHelper.toRGB(gray, gray, gray - 10);
+                }
+                pixels[y * width + x] = pixel;
+            }
+        }
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    /*
+     * scales image to the given size, keeping the type of the original where possible
+     */
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        int type = image.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_RGB : image.getType();
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return scaled;
+    }
+
+    /**
+     * runs one stage over one image and prints a line of results
+     */
+    private static void measure(String stageName, String inputName, BufferedImage image, int warmup, int iterations) {
+        Stage stage = getStage(stageName);
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        String error = null;
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        long nanos = 0;
+        long bytes = 0;
+        try {
+            for (int i = 0; i < warmup; i++) {
+                stage.run(image, pixels);
+            }
+            long startBytes = StageMetrics.threadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                stage.run(image, pixels);
+            }
+            nanos = System.nanoTime() - start;
+            bytes = startBytes < 0 ? -1 : StageMetrics.threadAllocatedBytes() - startBytes;
+        } catch (RuntimeException e) {
+            error = e.toString();
+        } finally {
+            System.setOut(console);
+        }
+
+        String size = image.getWidth() + "x" + image.getHeight();
+        if (error != null) {
+            System.out.println(String.format(Locale.ROOT, "%-22s %-24s %-10s failed: %s", stageName, inputName, size, error));
+            return;
+        }
+        double megapixels = image.getWidth() * (double) image.getHeight() / 1e6;
+        double msPerRun = nanos / 1e6 / iterations;
+        double allocPerRun = bytes < 0 ? Double.NaN : bytes / 1e6 / iterations;
+        System.out.println(String.format(Locale.ROOT, "%-22s %-24s %-10s %10.3f %10.1f %12.2f",
+                stageName, inputName, size, msPerRun, megapixels * iterations / (nanos / 1e9), allocPerRun));
+    }
+
+    public static void main(String[] args) throws IOException {
+        String sizes = "640x480,1920x1080";
+        String inputs = SYNTHETIC;
+        String stages = String.join(",", STAGE_NAMES);
+        int warmup = 5;
+        int iterations = 10;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-sizes")) {
+                sizes = args[i + 1];
+            } else if (args[i].equals("-inputs")) {
+                inputs = args[i + 1];
+            } else if (args[i].equals("-stages")) {
+                stages = args[i + 1];
+            } else if (args[i].equals("-warmup")) {
+                warmup = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("-iterations")) {
+                iterations = Integer.parseInt(args[i + 1]);
+            }
+        }
+
+        List<int[]> dimensions = new ArrayList<>();
+        for (String size : sizes.split(",")) {
+            String[] parts = size.split("x");
+            dimensions.add(new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) });
+        }
+
+        int parallelism = RowBands.getParallelism();
+        RowBands.setParallelism(1);
+        try {
+            System.out.println("PixelKernels " + (PixelKernels.isVectorized() ? "on the vector API" : "on plain loops"));
+            System.out.println(String.format(Locale.ROOT, "%-22s %-24s %-10s %10s %10s %12s",
+                    "stage", "input", "size", "ms/op", "MP/s", "alloc MB/op"));
+            for (String input : inputs.split(",")) {
+                BufferedImage real = null;
+                if (!input.equals(SYNTHETIC)) {
+                    real = RawFrame.readImage(new File(input));
+                    if (real == null) {
+                        System.out.println("failed to open " + input);
+                        continue;
+                    }
+                }
+                for (int[] dimension : dimensions) {
+                    BufferedImage image = (real == null) ? createSynthetic(dimension[0], dimension[1])
+                            : scale(real, dimension[0], dimension[1]);
+                    for (String stage : stages.split(",")) {
+                        measure(stage, input, image, warmup, iterations);
+                    }
+                }
+            }
+        } finally {
+            RowBands.setParallelism(parallelism);
+        }
+    }
+}
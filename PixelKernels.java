@@ -0,0 +1,129 @@
+package ftc;
+
+/**
+ * Whole-array versions of the per pixel operations in ImageHelper and ColorClassifier.
+ *
+ * When the JVM is started with --add-modules jdk.incubator.vector the work is done by VectorKernels,
+ * several pixels per instruction. Otherwise, or when VectorKernels was left out of the build, the
+ * plain loops here are used. Either way the results are exactly the same as calling the per pixel
+ * methods one pixel at a time. -Dftc.vector=false turns the vector versions off, to compare the two.
+ */
+public class PixelKernels {
+
+    /**
+     * the operations VectorKernels provides, with the same arguments as the methods of PixelKernels.
+     * Each processes whole vectors from the start of the run and returns the index of the first pixel
+     * it left, which the plain loop then finishes
+     */
+    interface Kernels {
+        int mask(int[] src, int[] dst, int from, int to, int mask);
+
+        int maskGray(int[] src, int[] dst, int from, int to, int mask);
+
+        int classify(int[] pixels, int from, int to, byte[] labels, int labelFrom, int minTotal, int maxTotal,
+                     int minChannel, int channelMargin, int greenMargin);
+    }
+
+    // null when the vector API can not be used
+    private static final Kernels VECTOR = loadVectorKernels();
+
+    /*
+     * VectorKernels is only ever loaded by name, so this class still works when it can not be
+     */
+    private static Kernels loadVectorKernels() {
+        if (!Boolean.parseBoolean(System.getProperty("ftc.vector", "true"))) {
+            return null;
+        }
+        try {
+            return (Kernels) Class.forName("ftc.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the kernels run on the vector API, false if on the plain loops
+     */
+    public static boolean isVectorized() {
+        return VECTOR != null;
+    }
+
+    /**
+     * dst[i] = src[i] &amp; mask for every i in [from, to)
+     * @param src ARGB values to read
+     * @param dst array to write, may be src
+     * @param from first index to process
+     * @param to index after the last one to process
+     * @param mask RGB value to filter with (FF for keep, 00 to ignore)
+     */
+    public static void mask(int[] src, int[] dst, int from, int to, int mask) {
+        if (VECTOR != null) {
+            from = VECTOR.mask(src, dst, from, to, mask);
+        }
+        for (int i = from; i < to; i++) {
+            dst[i] = src[i] & mask;
+        }
+    }
+
+    /**
+     * dst[i] = ImageHelper.toGrayScale(src[i]) for every i in [from, to)
+     * @param src ARGB values to read
+     * @param dst array to write, may be src
+     * @param from first index to process
+     * @param to index after the last one to process
+     */
+    public static void gray(int[] src, int[] dst, int from, int to) {
+        maskGray(src, dst, from, to, 0xFFFFFFFF);
+    }
+
+    /**
+     * dst[i] = ImageHelper.toGrayScale(src[i] &amp; mask) for every i in [from, to)
+     * @param src ARGB values to read
+     * @param dst array to write, may be src
+     * @param from first index to process
+     * @param to index after the last one to process
+     * @param mask RGB value to filter with before converting to grayscale
+     */
+    public static void maskGray(int[] src, int[] dst, int from, int to, int mask) {
+        if (VECTOR != null) {
+            from = VECTOR.maskGray(src, dst, from, to, mask);
+        }
+        for (int i = from; i < to; i++) {
+            dst[i] = ImageHelper.toGrayScale(src[i] & mask);
+        }
+    }
+
+    /**
+     * classifies a run of pixels with the given thresholds, see ColorClassifier.Snapshot.classify
+     * @param pixels RGB values of the pixels, the alpha channel is ignored
+     * @param from index of the first pixel to classify
+     * @param to index after the last pixel to classify
+     * @param labels array to write MaskImage.RED, MaskImage.BLUE or MaskImage.NONE to
+     * @param labelFrom index in labels of the label of the first pixel
+     */
+    static void classify(int[] pixels, int from, int to, byte[] labels, int labelFrom, int minTotal, int maxTotal,
+                         int minChannel, int channelMargin, int greenMargin) {
+        if (VECTOR != null) {
+            int done = VECTOR.classify(pixels, from, to, labels, labelFrom, minTotal, maxTotal, minChannel,
+                    channelMargin, greenMargin);
+            labelFrom += done - from;
+            from = done;
+        }
+        final int twiceMargin = 2 * channelMargin;
+        final int offset = labelFrom - from;
+        for (int i = from; i < to; i++) {
+            int rgb = pixels[i];
+            int red = (rgb >> 16) & 0xFF;
+            int green = (rgb >> 8) & 0xFF;
+            int blue = rgb & 0xFF;
+            int total = red + green + blue;
+            // (b - a) >> 31 is all ones when a > b. The values are small enough that the difference never overflows
+            int inRange = ((minTotal - total) & (total - maxTotal - 1)) >> 31;
+            // red > margin + .5 * (total - red) is the same as 2 * red > 2 * margin + total - red for ints
+            int isRed = ((minChannel - red) & (twiceMargin + total - 3 * red)) >> 31;
+            int isGreen = ((blue - green) & (red - green - greenMargin)) >> 31;
+            int isBlue = ((minChannel - blue) & (twiceMargin + total - 3 * blue)) >> 31;
+            labels[offset + i] = (byte) (inRange & ((isBlue & MaskImage.BLUE) | (isRed & ~isGreen & ~isBlue & MaskImage.RED)));
+        }
+    }
+}
@@ -12,11 +12,10 @@ public class RGBImage extends BufferedImage{
     int height;
     int width;
     int maskRGB;
-    int[] maskColor;
     boolean isGrayScale;
 
     public RGBImage(BufferedImage srcImage) {
-        super(srcImage.getWidth(), srcImage.getHeight(), srcImage.getType());
+        super(srcImage.getWidth(), srcImage.getHeight(), ImageHelper.getImageType(srcImage));
         this.srcImage = srcImage;
         this.height = srcImage.getHeight();
         this.width = srcImage.getWidth();
@@ -35,36 +34,19 @@ public class RGBImage extends BufferedImage{
 
     public void setMask(int mask, boolean isGrayScale) {
         this.maskRGB = mask;
-        this.maskColor = ImageHelper.fromRGB(mask);
         this.isGrayScale = isGrayScale;
         performMask();
     }
 
     private void performMask() {
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int maskRGB = getMaskColor(x,y);
-                this.setRGB(x, y, maskRGB);
-            }
-        }
+        Tiles.run(srcImage, this, 0, (srcPixels, srcRows, maskPixels, startY, rows) -> {
+            RowBands.run(rows, (band, bandStart, bandEnd) -> {
+                if (isGrayScale) {
+                    PixelKernels.maskGray(srcPixels, maskPixels, bandStart * width, bandEnd * width, maskRGB);
+                } else {
+                    PixelKernels.mask(srcPixels, maskPixels, bandStart * width, bandEnd * width, maskRGB);
+                }
+            });
+        });
     }
-
-    private int getMaskColor(int x, int y) {
-        /*
-         * TODO 3
-         * get the color at [x,y] and use bitwise operations to filter out the unwanted colors
-         * for example if maskRBG is RED_MASK (0xFFFF0000) should remove the green and blue values of the color
-         * if using grayscale, convert the color to grayscale prior to returning it.
-         */
-        int sourceColor = srcImage.getRGB(x, y);
-        int resultColor = sourceColor & maskRGB;
-        if (isGrayScale)
-        {  
-        	return ImageHelper.toGrayScale(resultColor);
-        	//int grayColors[] = ImageHelper.fromRGB(resultColor);
-        	//int color = grayColors[1] + grayColors[0] + grayColors[2];
-        	//return ImageHelper.toRGB(color, color, color);
-        }
-        return resultColor;
-    }
-}
\ No newline at end of file
+}
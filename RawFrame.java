@@ -0,0 +1,272 @@
+package ftc;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.imageio.ImageIO;
+
+/**
+ * An uncompressed frame on disk that is memory-mapped instead of decoded.
+ *
+ * The file is a 32 byte header followed by the pixels, row by row with no padding:
+ * int magic ("FRAW"), int version, int width, int height, int channels, then zeros up to 32 bytes.
+ * With 4 channels each pixel is a big-endian ARGB int, with 3 channels it is 3 bytes R, G, B.
+ *
+ * getImage wraps the mapping as a BufferedImage without copying it, so opening a frame costs next to
+ * nothing and its pixels are read from the page cache as they are used. The image is read only.
+ *
+ * usage: RawFrame [-alpha] image... converts each image to image.raw, with 4 channels if -alpha is given
+ */
+public class RawFrame {
+    public static final String EXTENSION = ".raw";
+
+    private static final int MAGIC = 0x46524157;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private final int width;
+    private final int height;
+    private final int channels;
+    // the pixels after the header
+    private final ByteBuffer pixels;
+
+    private RawFrame(int width, int height, int channels, ByteBuffer pixels) {
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.pixels = pixels;
+    }
+
+    /**
+     * maps a raw frame into memory, the mapping stays valid until the frame is garbage collected
+     * @param file raw frame to open
+     * @return the frame
+     * @throws IOException if the file can not be read or is not a raw frame
+     */
+    public static RawFrame map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("not a raw frame: " + file);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("not a raw frame: " + file);
+            }
+            int width = buffer.getInt(8);
+            int height = buffer.getInt(12);
+            int channels = buffer.getInt(16);
+            if (width <= 0 || height <= 0 || (channels != 3 && channels != 4)
+                    || size != HEADER_SIZE + (long) width * height * channels) {
+                throw new IOException("corrupt raw frame: " + file);
+            }
+            buffer.position(HEADER_SIZE);
+            return new RawFrame(width, height, channels, buffer.slice());
+        }
+    }
+
+    /**
+     * writes image as a raw frame
+     * @param image image to write
+     * @param file file to write it to
+     * @param alpha true to keep the alpha channel (4 bytes per pixel), false for 3 bytes per pixel
+     */
+    public static void write(BufferedImage image, File file, boolean alpha) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int channels = alpha ? 4 : 3;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(channels);
+            header.rewind();
+            writeFully(channel, header);
+
+            int[] row = new int[width];
+            ByteBuffer bytes = ByteBuffer.allocate(width * channels);
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                bytes.clear();
+                for (int x = 0; x < width; x++) {
+                    if (alpha) {
+                        bytes.putInt(row[x]);
+                    } else {
+                        bytes.put((byte) ImageHelper.red(row[x])).put((byte) ImageHelper.green(row[x]))
+                                .put((byte) ImageHelper.blue(row[x]));
+                    }
+                }
+                bytes.flip();
+                writeFully(channel, bytes);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * reads an image, mapping it if it is a raw frame and decoding it with ImageIO otherwise
+     * @param file image to read
+     * @return the image, null if ImageIO can not decode it
+     */
+    public static BufferedImage readImage(File file) throws IOException {
+        if (file.getName().endsWith(EXTENSION)) {
+            return map(file).getImage();
+        }
+        return ImageIO.read(file);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return 4 if the frame has an alpha channel, 3 if not
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return a read only image whose raster reads straight from the mapping, of TYPE_CUSTOM
+     */
+    public BufferedImage getImage() {
+        SampleModel sampleModel;
+        ColorModel colorModel;
+        if (channels == 4) {
+            colorModel = ColorModel.getRGBdefault();
+            sampleModel = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height,
+                    new int[] { 0xFF0000, 0xFF00, 0xFF, 0xFF000000 });
+        } else {
+            colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                    Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+            sampleModel = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, 3, width * 3,
+                    new int[] { 0, 1, 2 });
+        }
+        WritableRaster raster = Raster.createWritableRaster(sampleModel, new MappedDataBuffer(this), null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * copies every pixel out of the mapping onto the heap, width * height * 4 bytes however small the
+     * frame is on disk. To go through a large frame a few rows at a time use getPixels(startY, rows, argb)
+     * @return row-major ARGB values of every pixel
+     */
+    public int[] getPixels() {
+        return getPixels(0, height, new int[width * height]);
+    }
+
+    /**
+     * copies the rows [startY, startY + rows) out of the mapping in one pass
+     * @param startY first row to copy
+     * @param rows number of rows to copy
+     * @param argb array of at least width*rows to fill with row-major ARGB values
+     * @return argb
+     */
+    public int[] getPixels(int startY, int rows, int[] argb) {
+        int count = width * rows;
+        if (channels == 4) {
+            IntBuffer ints = pixels.duplicate().asIntBuffer();
+            ints.position(startY * width);
+            ints.get(argb, 0, count);
+        } else {
+            ByteBuffer bytes = pixels.duplicate();
+            bytes.position(startY * width * 3);
+            for (int i = 0; i < count; i++) {
+                argb[i] = ImageHelper.toRGB(bytes.get() & 0xFF, bytes.get() & 0xFF, bytes.get() & 0xFF);
+            }
+        }
+        return argb;
+    }
+
+    /**
+     * the rows [startY, startY + rows) of image in one pass if it is the whole of a frame from
+     * getImage, so callers do not go through getRGB one pixel at a time
+     * @param image any image
+     * @param startY first row to read
+     * @param rows number of rows to read
+     * @param pixels array of at least width*rows to fill with row-major ARGB values
+     * @return pixels, null if image is not a mapped frame
+     */
+    static int[] getPixels(BufferedImage image, int startY, int rows, int[] pixels) {
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof MappedDataBuffer) || raster.getSampleModelTranslateX() != 0
+                || raster.getSampleModelTranslateY() != 0) {
+            return null;
+        }
+        RawFrame frame = ((MappedDataBuffer) raster.getDataBuffer()).frame;
+        if (image.getWidth() != frame.width || image.getHeight() != frame.height) {
+            return null;
+        }
+        return frame.getPixels(startY, rows, pixels);
+    }
+
+    /*
+     * the samples of a frame read from its mapping, ints for 4 channels and bytes for 3
+     */
+    private static class MappedDataBuffer extends DataBuffer {
+        private final RawFrame frame;
+        private final IntBuffer ints;
+        private final ByteBuffer bytes;
+
+        MappedDataBuffer(RawFrame frame) {
+            super(frame.channels == 4 ? TYPE_INT : TYPE_BYTE, frame.pixels.capacity() / (frame.channels == 4 ? 4 : 1));
+            this.frame = frame;
+            this.ints = (frame.channels == 4) ? frame.pixels.asIntBuffer() : null;
+            this.bytes = frame.pixels;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return (ints != null) ? ints.get(i) : bytes.get(i) & 0xFF;
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            throw new UnsupportedOperationException("raw frames are read only");
+        }
+    }
+
+    public static void main(String[] args) {
+        boolean alpha = false;
+        for (String arg : args) {
+            if (arg.equals("-alpha")) {
+                alpha = true;
+                continue;
+            }
+            try {
+                BufferedImage image = ImageIO.read(new File(arg));
+                if (image == null) {
+                    System.out.println("failed to open " + arg);
+                    continue;
+                }
+                write(image, new File(arg + EXTENSION), alpha);
+                System.out.println("wrote " + arg + EXTENSION);
+            } catch (IOException e) {
+                System.out.println("failed to convert " + arg + ": " + e.getMessage());
+            }
+        }
+    }
+}
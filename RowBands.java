@@ -0,0 +1,132 @@
+package ftc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits an image into bands of rows and runs a job over each band on a shared ForkJoinPool.
+ * With a parallelism of 1 (the default) the bands are run one after another on the calling thread.
+ */
+public class RowBands {
+    // rows per band never goes below this, so small images are not split into tiny tasks
+    static final int MIN_BAND_HEIGHT = 16;
+
+    private static int parallelism = 1;
+    private static ForkJoinPool pool;
+
+    /**
+     * work to perform over the rows [startY, endY) of an image
+     */
+    public interface Job {
+        /**
+         * @param band index of this band, from 0 to bandCount-1 from top to bottom
+         * @param startY first row of the band
+         * @param endY row after the last row of the band
+         */
+        void run(int band, int startY, int endY);
+    }
+
+    /**
+     * sets how many threads images are processed with
+     * @param parallelism number of threads, 1 to process on the calling thread only
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        if (parallelism != RowBands.parallelism) {
+            // images may still be running on the old pool, so it is left to end its idle threads on
+            // its own instead of being shut down under them
+            pool = null;
+        }
+        RowBands.parallelism = parallelism;
+    }
+
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * number of bands an image of the given height is split into. This depends only on the height and
+     * the parallelism, so per band results merged in band order always come out the same
+     * @param height height of the image in rows
+     * @return number of bands
+     */
+    public static int bandCount(int height) {
+        if (getParallelism() == 1) {
+            return 1;
+        }
+        int bands = Math.min(getParallelism() * 4, height / MIN_BAND_HEIGHT);
+        return Math.max(bands, 1);
+    }
+
+    /**
+     * runs job over every band of an image, returning once all bands are done
+     * @param height height of the image in rows
+     * @param job work to perform on each band
+     */
+    public static void run(int height, Job job) {
+        run(height, bandCount(height), job);
+    }
+
+    /**
+     * runs job over the given number of bands of an image, returning once all bands are done. Jobs that
+     * keep a result per band size it from bandCount and pass the same count here, so a change of
+     * parallelism in between can not leave them short
+     * @param height height of the image in rows
+     * @param bands number of bands, from bandCount
+     * @param job work to perform on each band
+     */
+    public static void run(int height, int bands, Job job) {
+        if (bands == 1) {
+            job.run(0, 0, height);
+            return;
+        }
+        getPool().invoke(new BandTask(job, height, bands, 0, bands));
+    }
+
+    /*
+     * first row of the given band
+     */
+    static int bandStart(int height, int bands, int band) {
+        return (int) ((long) height * band / bands);
+    }
+
+    /*
+     * splits the bands [lo, hi) in half until each task holds a single band
+     */
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Job job;
+        private final int height;
+        private final int bands;
+        private final int lo;
+        private final int hi;
+
+        BandTask(Job job, int height, int bands, int lo, int hi) {
+            this.job = job;
+            this.height = height;
+            this.bands = bands;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                job.run(lo, bandStart(height, bands, lo), bandStart(height, bands, lo + 1));
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new BandTask(job, height, bands, lo, mid), new BandTask(job, height, bands, mid, hi));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package ftc;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Finds the edges of an image in both directions at once.
+ *
+ * The source is read a row at a time and converted to gray into a buffer of the last three rows, and
+ * as soon as a row and the ones on either side of it are in the buffer its horizontal and vertical
+ * Sobel responses, their magnitude and optionally the direction of the edge are written. The image is
+ * only read once and nothing the size of the whole image is made apart from the results, instead of a
+ * gray copy of the image and a separate pass for each direction as SobelImage does.
+ *
+ * The 3x3 masks are centered on the pixel, and pixels at the border of the image repeat the nearest
+ * row or column of the image for the neighbours they are missing.
+ */
+public class SobelEdges {
+    // quantized directions of the gradient, the edge itself runs across it
+    public static final byte HORIZONTAL = 0;
+    public static final byte DIAGONAL_DOWN = 1;
+    public static final byte VERTICAL = 2;
+    public static final byte DIAGONAL_UP = 3;
+
+    // tan(22.5) and tan(67.5) scaled by 2^8, the limits between the four directions
+    private static final int TAN_22 = 106;
+    private static final int TAN_67 = 618;
+
+    private final int width;
+    private final int height;
+    private final short[] gx;
+    private final short[] gy;
+    private final byte[] magnitude;
+    private final byte[] orientation;
+
+    /**
+     * @param srcImage BufferedImage to find the edges of
+     * @param withOrientation true to also work out the direction of each edge
+     */
+    public SobelEdges(BufferedImage srcImage, boolean withOrientation) {
+        this.width = srcImage.getWidth();
+        this.height = srcImage.getHeight();
+        gx = new short[width * height];
+        gy = new short[width * height];
+        magnitude = new byte[width * height];
+        orientation = withOrientation ? new byte[width * height] : null;
+        RowBands.run(height, (band, startY, endY) -> detect(srcImage, startY, endY));
+    }
+
+    /*
+     * fills the results for the rows [startY, endY) with a rolling buffer of its own, so bands can run at
+     * the same time. Each band reads one row above and below itself
+     */
+    private void detect(BufferedImage srcImage, int startY, int endY) {
+        int[] rgbRow = new int[width];
+        int[][] rows = new int[3][width];
+        readRow(srcImage, Math.max(startY - 1, 0), rgbRow, rows[(startY + 2) % 3]);
+        readRow(srcImage, startY, rgbRow, rows[startY % 3]);
+        for (int y = startY; y < endY; y++) {
+            readRow(srcImage, Math.min(y + 1, height - 1), rgbRow, rows[(y + 1) % 3]);
+            int[] above = rows[(y + 2) % 3];
+            int[] row = rows[y % 3];
+            int[] below = rows[(y + 1) % 3];
+            for (int x = 0; x < width; x++) {
+                int left = Math.max(x - 1, 0);
+                int right = Math.min(x + 1, width - 1);
+                int dx = (above[right] + 2 * row[right] + below[right]) - (above[left] + 2 * row[left] + below[left]);
+                int dy = (below[left] + 2 * below[x] + below[right]) - (above[left] + 2 * above[x] + above[right]);
+                int i = y * width + x;
+                gx[i] = (short) dx;
+                gy[i] = (short) dy;
+                // |dx| + |dy| is at most 8 * 255
+                magnitude[i] = (byte) ((Math.abs(dx) + Math.abs(dy)) >> 3);
+                if (orientation != null) {
+                    orientation[i] = quantize(dx, dy);
+                }
+            }
+        }
+    }
+
+    /*
+     * reads row y of srcImage and converts it to gray. ImageHelper.getPixels reads the usual image types
+     * straight from their raster, getRGB would convert every pixel through the color model
+     */
+    private void readRow(BufferedImage srcImage, int y, int[] rgbRow, int[] grayRow) {
+        ImageHelper.getPixels(srcImage, y, 1, rgbRow);
+        for (int x = 0; x < width; x++) {
+            grayRow[x] = ImageHelper.grayRounded(rgbRow[x]);
+        }
+    }
+
+    /*
+     * which of the four directions the gradient (dx, dy) is closest to
+     */
+    private static byte quantize(int dx, int dy) {
+        int ax = Math.abs(dx);
+        int ay = Math.abs(dy) << 8;
+        if (ay <= ax * TAN_22) {
+            return HORIZONTAL;
+        }
+        if (ay >= ax * TAN_67) {
+            return VERTICAL;
+        }
+        // y grows downwards, so the same signs point down and to the right
+        return ((dx > 0) == (dy > 0)) ? DIAGONAL_DOWN : DIAGONAL_UP;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return row-major horizontal responses, positive where the image gets brighter to the right
+     */
+    public short[] getGx() {
+        return gx;
+    }
+
+    /**
+     * @return row-major vertical responses, positive where the image gets brighter downwards
+     */
+    public short[] getGy() {
+        return gy;
+    }
+
+    /**
+     * @return (|gx| + |gy|) / 8 for every pixel, 0-255
+     */
+    public GrayImage getMagnitude() {
+        return new GrayImage(magnitude, width, height);
+    }
+
+    /**
+     * @return row-major HORIZONTAL, DIAGONAL_DOWN, VERTICAL or DIAGONAL_UP for every pixel, the direction
+     *         the gray level changes fastest in. null unless asked for
+     */
+    public byte[] getOrientation() {
+        return orientation;
+    }
+}
@@ -12,8 +12,7 @@ public class SobelImage extends BufferedImage {
     // Mask for simple 3pix blurring
     int[][] BLUR = {{1,1,1},{1,1,1},{1,1,1}};
 
-    private BufferedImage grayImage;
-    private BufferedImage sobelImage;
+    private GrayImage grayImage;
     private BufferedImage srcImage;
 
     /**
@@ -22,14 +21,28 @@ public class SobelImage extends BufferedImage {
      * @param isVertical true if detecting vertical lines, else false
      */
     public SobelImage(BufferedImage srcImage, boolean isVertical) {
-        super(srcImage.getWidth(), srcImage.getHeight(), srcImage.getType());
+        this(new GrayImage(srcImage), ImageHelper.getImageType(srcImage), isVertical);
         this.srcImage = srcImage;
-        grayImage = new RGBImage(srcImage, RGBImage.NO_MASK, true);
-        if(isVertical)
-            sobelImage = new MaskImage(grayImage, GX);
-        else
-            sobelImage = new MaskImage(grayImage, GY);
-        this.setData(sobelImage.getRaster());
     }
- }
 
+    /**
+     * detects lines in an image that is already grayscale, without converting it back to color first
+     * @param grayImage GrayImage to detect lines of
+     * @param type BufferedImage type of the result
+     * @param isVertical true if detecting vertical lines, else false
+     */
+    public SobelImage(GrayImage grayImage, int type, boolean isVertical) {
+        super(grayImage.getWidth(), grayImage.getHeight(), type);
+        this.grayImage = grayImage;
+        final int[] values = new Convolution(isVertical ? GX : GY).filterValues(grayImage.getPixels(),
+                grayImage.getWidth(), grayImage.getHeight());
+        // lines are bright whichever way the gray level changes across them
+        final byte[] edges = new byte[values.length];
+        RowBands.run(grayImage.getHeight(), (band, startY, endY) -> {
+            for (int i = startY * grayImage.getWidth(); i < endY * grayImage.getWidth(); i++) {
+                edges[i] = (byte) Math.min(255, Math.abs(values[i]));
+            }
+        });
+        new GrayImage(edges, grayImage.getWidth(), grayImage.getHeight()).drawTo(this);
+    }
+ }
@@ -0,0 +1,246 @@
+package ftc;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Records how long each stage of the analysis takes and how many bytes it allocates, into a histogram
+ * per stage, so the median and worst case of every stage can be followed over a batch of images.
+ *
+ * Recording is off by default. While it is off every call is a single read of a flag, so the stages
+ * can be measured in place without slowing anything down. A stage is measured as:
+ *
+ * long time = StageMetrics.time();
+ * long bytes = StageMetrics.allocatedBytes();
+ * ... the stage ...
+ * StageMetrics.record(StageMetrics.FIND_EDGE, time, bytes);
+ *
+ * Allocation is counted for the thread running the stage only, work it hands to RowBands threads is
+ * not included.
+ *
+ * The stages of the analysis nest, and each one is recorded inclusive of the stages inside it:
+ * analyse is classify, then count, then FindxStart. FindxStart includes the findEdge of each beacon
+ * half, and each findEdge includes its findButton. The time spent in a stage itself is its time less
+ * that of the stages inside it, so classify, count and FindxStart add up to analyse, the same split
+ * BeaconResult reports.
+ */
+public class StageMetrics implements StageMetricsMXBean {
+    // stages of MaskImage's analysis
+    public static final String ANALYSE = "analyse";
+    public static final String CLASSIFY = "classify";
+    public static final String COUNT = "count";
+    public static final String FIND_X_START = "FindxStart";
+    public static final String FIND_EDGE = "findEdge";
+    public static final String FIND_BUTTON = "findButton";
+    // saving an image, see ImageOutput
+    public static final String ENCODE = "encode";
+
+    private static final StageMetrics INSTANCE = new StageMetrics();
+    private static volatile boolean enabled = false;
+    private static final Map<String, Histogram[]> stages = new ConcurrentHashMap<>();
+
+    /**
+     * @param on true to start recording, false to stop. What has been recorded is kept
+     */
+    public static void enable(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isRecording() {
+        return enabled;
+    }
+
+    /**
+     * @return the current time to pass to record, 0 when recording is off
+     */
+    public static long time() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @return bytes allocated so far by the calling thread to pass to record, 0 when recording is off
+     *         and -1 if the JVM can not tell
+     */
+    public static long allocatedBytes() {
+        return enabled ? threadAllocatedBytes() : 0;
+    }
+
+    /**
+     * bytes allocated so far by the calling thread, whether or not recording is on
+     * @return the bytes, -1 if the JVM can not tell
+     */
+    static long threadAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * records one run of a stage that started at time having allocated bytes
+     * @param stage name of the stage
+     * @param time value of time() when the stage started
+     * @param bytes value of allocatedBytes() when the stage started
+     */
+    public static void record(String stage, long time, long bytes) {
+        // a start taken while recording was off is 0 and not worth recording
+        if (!enabled || time == 0) {
+            return;
+        }
+        recordElapsed(stage, System.nanoTime() - time, bytes);
+    }
+
+    /**
+     * records one run of a stage whose time the caller has measured itself, so a stage that needs its
+     * time anyway reads the clock only once
+     * @param stage name of the stage
+     * @param nanos time the stage took
+     * @param bytes value of allocatedBytes() when the stage started
+     */
+    public static void recordElapsed(String stage, long nanos, long bytes) {
+        if (!enabled) {
+            return;
+        }
+        Histogram[] histograms = stages.computeIfAbsent(stage, name -> new Histogram[] { new Histogram(), new Histogram() });
+        histograms[0].record(nanos);
+        if (bytes >= 0) {
+            histograms[1].record(threadAllocatedBytes() - bytes);
+        }
+    }
+
+    /**
+     * @param stage name of the stage
+     * @return times of every run of the stage in nanoseconds, null if it has not run
+     */
+    public static Histogram getTimes(String stage) {
+        Histogram[] histograms = stages.get(stage);
+        return histograms == null ? null : histograms[0];
+    }
+
+    /**
+     * @param stage name of the stage
+     * @return bytes allocated by every run of the stage, null if it has not run
+     */
+    public static Histogram getAllocations(String stage) {
+        Histogram[] histograms = stages.get(stage);
+        return histograms == null ? null : histograms[1];
+    }
+
+    /**
+     * forgets everything recorded
+     */
+    public static void clear() {
+        stages.clear();
+    }
+
+    /**
+     * @return every stage as {"stage": {"count": n, "nanos": {...}, "allocatedBytes": {...}}}, each
+     *         histogram with its min, mean, p50, p90, p99 and max
+     */
+    public static String toJSON() {
+        StringBuilder json = new StringBuilder("{");
+        String separator = "\n";
+        for (Map.Entry<String, Histogram[]> stage : new TreeMap<>(stages).entrySet()) {
+            Histogram[] histograms = stage.getValue();
+            json.append(separator).append("  \"").append(stage.getKey()).append("\": {\"count\": ")
+                    .append(histograms[0].getCount()).append(", \"nanos\": ");
+            appendJSON(json, histograms[0]);
+            json.append(", \"allocatedBytes\": ");
+            appendJSON(json, histograms[1]);
+            json.append('}');
+            separator = ",\n";
+        }
+        return json.append("\n}").toString();
+    }
+
+    private static void appendJSON(StringBuilder json, Histogram histogram) {
+        json.append(String.format(Locale.ROOT,
+                "{\"min\": %d, \"mean\": %.1f, \"p50\": %d, \"p90\": %d, \"p99\": %d, \"max\": %d}",
+                histogram.getMin(), histogram.getMean(), histogram.getPercentile(50), histogram.getPercentile(90),
+                histogram.getPercentile(99), histogram.getMax()));
+    }
+
+    /**
+     * makes the metrics readable over JMX as ftc:type=StageMetrics, doing nothing if they already are
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("ftc:type=StageMetrics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register the stage metrics", e);
+        }
+    }
+
+    private StageMetrics() {
+    }
+
+    /*
+     * one value of every stage, taken from its time or allocation histogram
+     */
+    private interface Statistic {
+        long of(Histogram times, Histogram allocations);
+    }
+
+    private static Map<String, Long> collect(Statistic statistic) {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Histogram[]> stage : stages.entrySet()) {
+            values.put(stage.getKey(), statistic.of(stage.getValue()[0], stage.getValue()[1]));
+        }
+        return values;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return isRecording();
+    }
+
+    @Override
+    public void setEnabled(boolean on) {
+        enable(on);
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        return collect((times, allocations) -> times.getCount());
+    }
+
+    @Override
+    public Map<String, Long> getP50Nanos() {
+        return collect((times, allocations) -> times.getPercentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getP99Nanos() {
+        return collect((times, allocations) -> times.getPercentile(99));
+    }
+
+    @Override
+    public Map<String, Long> getP99AllocatedBytes() {
+        return collect((times, allocations) -> allocations.getPercentile(99));
+    }
+
+    @Override
+    public String getJSON() {
+        return toJSON();
+    }
+
+    @Override
+    public void reset() {
+        clear();
+    }
+}
@@ -0,0 +1,40 @@
+package ftc;
+
+import java.util.Map;
+
+/**
+ * The stage timings of StageMetrics as seen over JMX, for example from jconsole while a batch runs.
+ * Registered as ftc:type=StageMetrics by StageMetrics.registerMBean.
+ */
+public interface StageMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return number of times each stage has run
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * @return median time of each stage in nanoseconds
+     */
+    Map<String, Long> getP50Nanos();
+
+    /**
+     * @return 99th percentile time of each stage in nanoseconds
+     */
+    Map<String, Long> getP99Nanos();
+
+    /**
+     * @return 99th percentile of the bytes each stage allocated on its own thread
+     */
+    Map<String, Long> getP99AllocatedBytes();
+
+    /**
+     * @return everything recorded, see StageMetrics.toJSON
+     */
+    String getJSON();
+
+    void reset();
+}
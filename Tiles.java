@@ -0,0 +1,74 @@
+package ftc;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Feeds an image through a job a strip of rows at a time, so the pixel arrays a job works on are bounded
+ * by the tile height instead of the size of the image.
+ *
+ * Each strip is read from the source with a halo of extra rows below it, for masks that look at the
+ * pixels under the one being computed, and the result is written to the destination before the next
+ * strip is read. With a tile height of 0 (the default) the whole image is a single strip.
+ */
+public class Tiles {
+    private static int tileHeight = 0;
+
+    /**
+     * work to perform over one strip of an image
+     */
+    public interface Job {
+        /**
+         * @param src ARGB values of the source rows [startY, startY + srcRows), the strip and its halo
+         * @param srcRows number of rows in src, less than rows + halo at the bottom of the image
+         * @param dst array to fill with the result for the rows [startY, startY + rows)
+         * @param startY first row of the strip
+         * @param rows number of rows in the strip
+         */
+        void run(int[] src, int srcRows, int[] dst, int startY, int rows);
+    }
+
+    /**
+     * sets how many rows are processed at a time
+     * @param rows rows per strip, 0 to process whole images at once
+     */
+    public static synchronized void setTileHeight(int rows) {
+        if (rows < 0) {
+            throw new IllegalArgumentException("tile height can not be negative: " + rows);
+        }
+        tileHeight = rows;
+    }
+
+    public static synchronized int getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * runs job over every strip of src, writing the results into dst
+     * @param src image to read
+     * @param dst image to write, the same size as src
+     * @param halo number of rows below each strip the job needs to see
+     * @param job work to perform on each strip
+     */
+    public static void run(BufferedImage src, BufferedImage dst, int halo, Job job) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int rows = getTileHeight();
+        if (rows == 0 || rows >= height) {
+            int[] dstPixels = new int[width * height];
+            job.run(ImageHelper.getPixels(src), height, dstPixels, 0, height);
+            ImageHelper.setPixels(dst, dstPixels);
+            return;
+        }
+
+        // the same two buffers are reused for every strip
+        int[] srcPixels = new int[width * (rows + halo)];
+        int[] dstPixels = new int[width * rows];
+        for (int startY = 0; startY < height; startY += rows) {
+            int stripRows = Math.min(rows, height - startY);
+            int srcRows = Math.min(stripRows + halo, height - startY);
+            ImageHelper.getPixels(src, startY, srcRows, srcPixels);
+            job.run(srcPixels, srcRows, dstPixels, startY, stripRows);
+            ImageHelper.setPixels(dst, startY, stripRows, dstPixels);
+        }
+    }
+}
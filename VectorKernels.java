@@ -0,0 +1,100 @@
+package ftc;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * PixelKernels on the incubating vector API, as many pixels per instruction as the CPU has lanes.
+ *
+ * Only loaded by PixelKernels, by name, so the rest of the code does not depend on the module: this
+ * class needs --add-modules jdk.incubator.vector both to compile and to run, and can be left out of a
+ * build that does not have it.
+ *
+ * ImageHelper.gray truncates 0.299 * red + 0.587 * green + 0.114 * blue worked out in doubles. Unless
+ * 299 * red + 587 * green + 114 * blue is a multiple of 1000 that is the same as dividing that sum by
+ * 1000, which the vector API can do in ints without converting every lane to a double and back. For
+ * the one color in a thousand where it is a multiple the double can land just below the whole number,
+ * so those lanes are worked out again with ImageHelper itself, keeping the result the same to the
+ * last bit.
+ */
+class VectorKernels implements PixelKernels.Kernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED.vectorBitSize() >= 256
+            ? IntVector.SPECIES_PREFERRED : IntVector.SPECIES_256;
+    // one label per int lane
+    private static final VectorSpecies<Byte> LABELS = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(INTS.vectorBitSize() / 4));
+    // weights of ImageHelper.gray in thousandths, which is all the digits they have
+    private static final int RED_PER_MILLE = (int) Math.round(ImageHelper.RED_WEIGHT * 1000);
+    private static final int GREEN_PER_MILLE = (int) Math.round(ImageHelper.GREEN_WEIGHT * 1000);
+    private static final int BLUE_PER_MILLE = (int) Math.round(ImageHelper.BLUE_WEIGHT * 1000);
+    // sum / 1000 is ((sum >>> 3) * DIVIDE_BY_125) >>> 24, exact for every sum of 8 bit channels and
+    // without overflowing the 32 bits of a lane read as unsigned
+    private static final int DIVIDE_BY_125 = 134218;
+
+    @Override
+    public int mask(int[] src, int[] dst, int from, int to, int mask) {
+        int end = from + INTS.loopBound(to - from);
+        for (int i = from; i < end; i += INTS.length()) {
+            IntVector.fromArray(INTS, src, i).and(mask).intoArray(dst, i);
+        }
+        return end;
+    }
+
+    @Override
+    public int maskGray(int[] src, int[] dst, int from, int to, int mask) {
+        int end = from + INTS.loopBound(to - from);
+        for (int i = from; i < end; i += INTS.length()) {
+            IntVector rgb = IntVector.fromArray(INTS, src, i).and(mask);
+            IntVector sum = rgb.lanewise(VectorOperators.LSHR, 16).and(0xFF).mul(RED_PER_MILLE)
+                    .add(rgb.lanewise(VectorOperators.LSHR, 8).and(0xFF).mul(GREEN_PER_MILLE))
+                    .add(rgb.and(0xFF).mul(BLUE_PER_MILLE));
+            IntVector gray = sum.lanewise(VectorOperators.LSHR, 3).mul(DIVIDE_BY_125)
+                    .lanewise(VectorOperators.LSHR, 24);
+            gray.lanewise(VectorOperators.LSHL, 16).or(gray.lanewise(VectorOperators.LSHL, 8)).or(gray)
+                    .or(0xFF000000).intoArray(dst, i);
+            VectorMask<Integer> whole = gray.mul(1000).compare(VectorOperators.EQ, sum);
+            if (whole.anyTrue()) {
+                for (int lane = whole.firstTrue(); lane < INTS.length(); lane++) {
+                    if (whole.laneIsSet(lane)) {
+                        dst[i + lane] = ImageHelper.toGrayScale(src[i + lane] & mask);
+                    }
+                }
+            }
+        }
+        return end;
+    }
+
+    @Override
+    public int classify(int[] pixels, int from, int to, byte[] labels, int labelFrom, int minTotal, int maxTotal,
+                        int minChannel, int channelMargin, int greenMargin) {
+        final int twiceMargin = 2 * channelMargin;
+        final int offset = labelFrom - from;
+        int end = from + INTS.loopBound(to - from);
+        IntVector none = IntVector.zero(INTS);
+        for (int i = from; i < end; i += INTS.length()) {
+            IntVector rgb = IntVector.fromArray(INTS, pixels, i);
+            IntVector red = rgb.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            IntVector green = rgb.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            IntVector blue = rgb.and(0xFF);
+            IntVector total = red.add(green).add(blue);
+            IntVector limit = total.add(twiceMargin);
+            VectorMask<Integer> inRange = total.compare(VectorOperators.GT, minTotal)
+                    .and(total.compare(VectorOperators.LE, maxTotal));
+            // red > margin + .5 * (total - red) is the same as 3 * red > 2 * margin + total for ints
+            VectorMask<Integer> isRed = red.compare(VectorOperators.GT, minChannel)
+                    .and(red.mul(3).compare(VectorOperators.GT, limit));
+            VectorMask<Integer> isGreen = green.compare(VectorOperators.GT, blue)
+                    .and(red.compare(VectorOperators.LT, green.add(greenMargin)));
+            VectorMask<Integer> isBlue = blue.compare(VectorOperators.GT, minChannel)
+                    .and(blue.mul(3).compare(VectorOperators.GT, limit));
+            IntVector label = none.blend(MaskImage.RED, isRed.andNot(isGreen)).blend(MaskImage.BLUE, isBlue)
+                    .blend(MaskImage.NONE, inRange.not());
+            ((ByteVector) label.convertShape(VectorOperators.I2B, LABELS, 0)).intoArray(labels, offset + i);
+        }
+        return end;
+    }
+}
@@ -1,11 +1,10 @@
 package ftc;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 
-import javax.imageio.ImageIO;
-
 public class main {
     private static final String FILE_NAME_1 = "res/example1.jpg";
     private static final String FILE_NAME_2 = "res/example2.jpg";
@@ -40,16 +39,79 @@ public class main {
 
     private static String FILE_NAME = FILE_NAME_16;
 
+    // mask applied over the original image
+    static final int[][] BLUR_MASK = {{9,8,7,6,5,4,3,2,1},{9,8,7,6,5,4,3,2,1},{9,8,7,6,5,4,3,2,1}};
+
+    // how the resulting images are saved, see ImageOutput
+    private static String OUTPUT_FORMAT = ImageOutput.PNG;
+    private static int COMPRESSION_LEVEL = -1;
+
+    private static final String USAGE = "usage: main [-headless] [-tile rows] [-format png|ppm|none] [-compression 0-9] [image file]";
+
+    /**
+     * usage: main [-headless] [-tile rows] [-format png|ppm|none] [-compression 0-9] [image file]
+     *
+     * -headless only runs the image pipeline and never starts Swing, it is also used when there is no
+     * display. -tile processes images that many rows at a time, which bounds the pixel buffers of very
+     * large images such as res/example6.large by the tile height. The beacon search still keeps a label
+     * and a packed count table for the whole image, about 3 bytes a pixel. For the fastest single image
+     * run also pass -XX:TieredStopAtLevel=1 to the JVM, the analysis is too short for the optimizing
+     * compiler to pay off.
+     * -format saves the resulting images as png (the default), as uncompressed ppm which is much faster
+     * to write, or not at all. -compression sets the png compression level, lower is faster. Images are
+     * saved in the background while the next one is made. An unknown option or one without its value
+     * prints this usage and nothing is run
+     */
     public static void main(String[] args) {
         /*
          * TODO
          * there are 4 tasks that need to be completed to make this work
          * start in ImageHelper, then RBGImage, then MaskImage
          */
-        BufferedImage img = null;
+        boolean headless = false;
         try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-headless")) {
+                    headless = true;
+                } else if (!args[i].startsWith("-")) {
+                    FILE_NAME = args[i];
+                } else if (args[i].equals("-tile")) {
+                    Tiles.setTileHeight(Integer.parseInt(optionValue(args, ++i)));
+                } else if (args[i].equals("-format")) {
+                    OUTPUT_FORMAT = optionValue(args, ++i);
+                    if (!ImageOutput.isFormat(OUTPUT_FORMAT)) {
+                        throw new IllegalArgumentException("unknown output format " + OUTPUT_FORMAT);
+                    }
+                } else if (args[i].equals("-compression")) {
+                    COMPRESSION_LEVEL = Integer.parseInt(optionValue(args, ++i));
+                    if (COMPRESSION_LEVEL < 0 || COMPRESSION_LEVEL > 9) {
+                        throw new IllegalArgumentException("compression level must be between 0 and 9: " + COMPRESSION_LEVEL);
+                    }
+                } else {
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // also a number that does not parse
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            return;
+        }
+        if (headless) {
+            // must be set before anything from AWT is loaded
+            System.setProperty("java.awt.headless", "true");
+        }
+        // a single interactive run reports the buttons it finds
+        MaskImage.setLog(System.out);
+        if (headless || GraphicsEnvironment.isHeadless()) {
+            runHeadless();
+            return;
+        }
+
+        BufferedImage img = null;
+        try (ImageOutput output = createOutput()) {
             File file = new File(FILE_NAME);
-            img = ImageIO.read(file);
+            img = RawFrame.readImage(file);
 
             // create frame
             ImageFrame myFrame = new ImageFrame();
@@ -63,26 +125,69 @@ public class main {
 
             //BufferedImage sobelV = new SobelImage(grayImage, false);
             //BufferedImage sobelH = new SobelImage(grayImage, true);
-            int[][] myMask = {{9,8,7,6,5,4,3,2,1},{9,8,7,6,5,4,3,2,1},{9,8,7,6,5,4,3,2,1}} ;
-            BufferedImage blurImage = new MaskImage( original, myMask);
+            MaskImage blurImage = new MaskImage( original, BLUR_MASK);
             // add images to frame
             myFrame.addImage(0, 0, original);
-           myFrame.addImage(0, 1, blurImage);
+           myFrame.addImage(0, 1, blurImage.getAnnotatedImage());
             //myFrame.addImage(0, 1, sobelH);
            //myFrame.addImage(1, 1, sobelV);
 
             // save resulting images to file
             String base = FILE_NAME.substring(0, FILE_NAME.length()-4);
-            ImageIO.write(blurImage, "png", new File(base+"_BLUR"));
-            ImageIO.write(greenImage, "png", new File(base+"_green"));
-            ImageIO.write(blueImage, "png", new File(base+"_blue"));
-            //ImageIO.write(sobelH, "png", new File(base+"_sobelH"));
-            //ImageIO.write(sobelV, "png", new File(base+"_sobelV"));
+            output.write(blurImage, blurImage.getOverlay(), new File(base+"_BLUR"));
+            output.write(greenImage, new File(base+"_green"));
+            output.write(blueImage, new File(base+"_blue"));
+            //output.write(sobelH, new File(base+"_sobelH"));
+            //output.write(sobelV, new File(base+"_sobelV"));
          
-            	MaskImage.getColor();
+            	blurImage.getColor();
             
         } catch (IOException e) {
             System.out.println("failed to open");
         }
     }
+
+    /*
+     * the value of the option at i - 1, once the option is known to take one. Also used by BatchRunner
+     */
+    static String optionValue(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+
+    /*
+     * one thread per image saved, main saves at most three at a time
+     */
+    private static ImageOutput createOutput() {
+        ImageOutput output = new ImageOutput(3);
+        output.setFormat(OUTPUT_FORMAT);
+        output.setCompressionLevel(COMPRESSION_LEVEL);
+        return output;
+    }
+
+    /*
+     * analyses FILE_NAME and saves the results without creating a frame or any image that is
+     * only ever displayed
+     */
+    private static void runHeadless() {
+        try (ImageOutput output = createOutput()) {
+            BufferedImage img = RawFrame.readImage(new File(FILE_NAME));
+            String base = FILE_NAME.substring(0, FILE_NAME.length()-4);
+
+            // the analysis only reads img, so it does not need its own copy of it
+            MaskImage blurImage = new MaskImage(img, BLUR_MASK);
+            output.write(blurImage, blurImage.getOverlay(), new File(base+"_BLUR"));
+            blurImage.getColor();
+
+            // each image is being saved while the next one is made
+            BufferedImage greenImage = new RGBImage(img, RGBImage.GREEN_MASK, false);
+            output.write(greenImage, new File(base+"_green"));
+            BufferedImage blueImage = new RGBImage(img, RGBImage.BLUE_MASK, false);
+            output.write(blueImage, new File(base+"_blue"));
+        } catch (IOException e) {
+            System.out.println("failed to open");
+        }
+    }
 }